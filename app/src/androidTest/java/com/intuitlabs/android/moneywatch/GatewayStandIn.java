@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-process stand-in for the Push Notification Gateway, serving the registration and group management calls
+ * of the gateway sdk over HTTP on the loopback interface. It keeps the groups of every user, registering replaces them,
+ * removing a user from a group removes it, and can simulate latency, errors and throttling.
+ * The app sends the whole set of groups with every registration, so replacing is the stricter assumption:
+ * a registration missing an acknowledged group shows up as a group lost here.
+ */
+class GatewayStandIn {
+    private static final String LOG_TAG = GatewayStandIn.class.getSimpleName();
+    private static final String PATH_REGISTER = "/api/registration/userdevice";
+    private static final String PATH_REMOVE = "/api/groupmanagement/removeusers";
+    private static final String SUCCESS = "{\"status\": \"success\"}";
+    private static final String ERROR = "{\"status\": \"error\", \"code\": \"500\", \"description\": \"Simulated error\"}";
+
+    private final ServerSocket mSocket;
+    private final ExecutorService mWorkers = Executors.newCachedThreadPool();
+    private final Map<String, Set<String>> mGroups = new HashMap<>();
+    private final Random mRandom = new Random();
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+    private final AtomicLong mThrottled = new AtomicLong();
+    private volatile long mLatencyMs;
+    private volatile double mErrorRate;
+    private volatile int mMaxPerSecond;
+    private long mSecond; // start of the current throttling second
+    private int mInSecond; // requests in the current throttling second
+
+    /**
+     * Starts serving on a free port of the loopback interface.
+     *
+     * @throws IOException if no port could be bound
+     */
+    GatewayStandIn() throws IOException {
+        mSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "gateway-stand-in").start();
+    }
+
+    /**
+     * @return {@link String} base url, to hand to {@link GCMIntentService#initGateway}
+     */
+    String getUrl() {
+        return "http://127.0.0.1:" + mSocket.getLocalPort();
+    }
+
+    /**
+     * @param latencyMs {@link long} delay before every response
+     */
+    void setLatency(final long latencyMs) {
+        mLatencyMs = latencyMs;
+    }
+
+    /**
+     * @param errorRate {@link double} share of requests answered with an error response, between 0 and 1
+     */
+    void setErrorRate(final double errorRate) {
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * @param maxPerSecond {@link int} requests accepted per second, more are answered with HTTP 429, 0 for no limit
+     */
+    void setMaxPerSecond(final int maxPerSecond) {
+        mMaxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * @param userId {@link String}
+     * @return {@link Set} copy of the groups the user is in
+     */
+    synchronized Set<String> getGroups(final String userId) {
+        final Set<String> groups = mGroups.get(userId);
+        return groups != null ? new HashSet<>(groups) : Collections.<String>emptySet();
+    }
+
+    long getRequestCount() {
+        return mRequests.get();
+    }
+
+    long getErrorCount() {
+        return mErrors.get();
+    }
+
+    long getThrottledCount() {
+        return mThrottled.get();
+    }
+
+    /**
+     * Stops serving.
+     */
+    void close() {
+        try {
+            mSocket.close();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, e.toString());
+        }
+        mWorkers.shutdownNow();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                final Socket socket = mSocket.accept();
+                mWorkers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            Log.i(LOG_TAG, "Stopped serving: " + e);
+        }
+    }
+
+    /**
+     * Serves a single request, then closes the connection.
+     */
+    private void serve(final Socket socket) {
+        try {
+            try {
+                final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                final String requestLine = in.readLine();
+                int length = 0;
+                String header;
+                while ((header = in.readLine()) != null && !header.isEmpty()) {
+                    if (header.toLowerCase().startsWith("content-length:")) {
+                        length = Integer.parseInt(header.substring(15).trim());
+                    }
+                }
+                final char[] body = new char[length];
+                int read = 0;
+                while (read < length) {
+                    final int n = in.read(body, read, length - read);
+                    if (n < 0) {
+                        break;
+                    }
+                    read += n;
+                }
+                mRequests.incrementAndGet();
+                if (0 < mLatencyMs) {
+                    Thread.sleep(mLatencyMs);
+                }
+                final String path = requestLine != null ? requestLine.split(" ")[1] : "";
+                if (isThrottled()) {
+                    mThrottled.incrementAndGet();
+                    respond(socket.getOutputStream(), "429 Too Many Requests", "");
+                } else if (mRandom.nextDouble() < mErrorRate) {
+                    mErrors.incrementAndGet();
+                    respond(socket.getOutputStream(), "200 OK", ERROR);
+                } else if (handle(path, new String(body, 0, read))) {
+                    respond(socket.getOutputStream(), "200 OK", SUCCESS);
+                } else {
+                    respond(socket.getOutputStream(), "404 Not Found", "");
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            Log.w(LOG_TAG, e.toString());
+        }
+    }
+
+    private synchronized boolean isThrottled() {
+        if (mMaxPerSecond == 0) {
+            return false;
+        }
+        final long second = System.currentTimeMillis() / 1000;
+        if (second != mSecond) {
+            mSecond = second;
+            mInSecond = 0;
+        }
+        return mMaxPerSecond < ++mInSecond;
+    }
+
+    /**
+     * Applies a registration or group removal to the kept groups.
+     *
+     * @return {@link boolean} false for an unknown path
+     */
+    private synchronized boolean handle(final String path, final String body) {
+        final JsonObject json = new JsonParser().parse(body).getAsJsonObject();
+        switch (path) {
+            case PATH_REGISTER: {
+                final String userId = json.get("userId").getAsString();
+                final Set<String> groups = new HashSet<>();
+                mGroups.put(userId, groups);
+                final JsonArray registered = json.getAsJsonArray("groups");
+                if (registered != null) {
+                    for (final JsonElement group : registered) {
+                        groups.add(group.getAsString());
+                    }
+                }
+                return true;
+            }
+            case PATH_REMOVE: {
+                final String group = json.get("destinationGroup").getAsString();
+                for (final JsonElement user : json.getAsJsonArray("users")) {
+                    final Set<String> groups = mGroups.get(user.getAsString());
+                    if (groups != null) {
+                        groups.remove(group);
+                    }
+                }
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private static void respond(final OutputStream out, final String status, final String body) throws IOException {
+        final byte[] bytes = body.getBytes("UTF-8");
+        out.write(("HTTP/1.1 " + status + "\r\nContent-Type: application/json\r\nContent-Length: " + bytes.length
+                + "\r\nConnection: close\r\n\r\n").getBytes("UTF-8"));
+        out.write(bytes);
+        out.flush();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Runs thousands of group sync cycles against the {@link GatewayStandIn}, with simulated latency, errors
+ * and throttling, changing the information source selection before every cycle. Throughput and latency
+ * are written to the log. After every cycle, the sync flag has to be correct: if set, the gateway's groups
+ * match the selection, otherwise operations are pending in the {@link GatewayOutbox}.
+ * <p/>
+ * The device needs a network connection, even though all calls go to the loopback interface.
+ */
+public class GatewaySyncLoadTest extends AndroidTestCase {
+    private static final String LOG_TAG = GatewaySyncLoadTest.class.getSimpleName();
+    private static final String USER_ID = "loadtest@example.com";
+    private static final String REGISTRATION_ID = "loadtest-registration";
+    private static final int CYCLES = 2000;
+    private static final int FINAL_ATTEMPTS = 10;
+
+    private GatewayStandIn mGateway;
+    private SharedPreferences mPrefs;
+    private String[] mFeeds;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mGateway = new GatewayStandIn();
+        GCMIntentService.initGateway(mGateway.getUrl());
+        // the gateway sdk only registers with a GCM registration id, valid for the installed app version
+        getContext().getSharedPreferences("com.google.android.gcm", 0).edit()
+                .putString("regId", REGISTRATION_ID)
+                .putInt("appVersion", getContext().getPackageManager().getPackageInfo(getContext().getPackageName(), 0).versionCode)
+                .commit();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(getContext());
+        mPrefs.edit()
+                .putString(getContext().getString(R.string.preference_key_userid), USER_ID)
+                .remove(getContext().getString(R.string.preference_key_groups))
+                .remove(getContext().getString(R.string.preference_key_groups_registration))
+                .commit();
+        mFeeds = getContext().getResources().getStringArray(R.array.feed_values);
+        while (!USER_ID.equals(MoneyWatchConfig.get().userId)) {
+            Thread.sleep(1); // the snapshot is rebuilt on the main thread
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mGateway.close();
+        super.tearDown();
+    }
+
+    public void testSyncCycles() throws Exception {
+        mGateway.setLatency(2);
+        mGateway.setErrorRate(0.05);
+        mGateway.setMaxPerSecond(500);
+
+        final Random random = new Random(42);
+        final long[] latencies = new long[CYCLES];
+        int inSync = 0;
+        int wrong = 0;
+        Set<String> selected = null;
+        final long start = System.nanoTime();
+        for (int i = 0; i < CYCLES; i++) {
+            selected = select(random);
+            final long t0 = System.nanoTime();
+            final boolean flag = SyncScheduler.getInstance().syncNow();
+            latencies[i] = (System.nanoTime() - t0) / 1000;
+            if (flag) {
+                inSync++;
+            }
+            if (flag ? !selected.equals(mGateway.getGroups(USER_ID)) : GatewayOutbox.getInstance().isEmpty()) {
+                wrong++;
+            }
+        }
+        final long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        // without errors, the pending operations have to go through
+        mGateway.setErrorRate(0);
+        mGateway.setMaxPerSecond(0);
+        boolean flag = false;
+        for (int i = 0; i < FINAL_ATTEMPTS && !flag; i++) {
+            flag = SyncScheduler.getInstance().syncNow();
+        }
+
+        Arrays.sort(latencies);
+        Log.i(LOG_TAG, String.format("%d cycles in %d ms, %.1f cycles/s, %d requests, %d errors, %d throttled, %d in sync",
+                CYCLES, elapsedMs, CYCLES * 1000.0 / elapsedMs, mGateway.getRequestCount(),
+                mGateway.getErrorCount(), mGateway.getThrottledCount(), inSync));
+        Log.i(LOG_TAG, String.format("Cycle latency p50: %d us, p99: %d us, p99.9: %d us, max: %d us",
+                latencies[CYCLES / 2], latencies[CYCLES * 99 / 100], latencies[CYCLES * 999 / 1000], latencies[CYCLES - 1]));
+
+        assertEquals("cycles with a wrong sync flag", 0, wrong);
+        assertTrue("sync did not complete", flag);
+        assertEquals(selected, mGateway.getGroups(USER_ID));
+        assertTrue(mPrefs.getBoolean(getContext().getString(R.string.preference_key_sync), false));
+    }
+
+    /**
+     * Selects a random subset of the information sources, and waits for the {@link MoneyWatchConfig} to show it.
+     */
+    private Set<String> select(final Random random) throws InterruptedException {
+        final Set<String> selected = new HashSet<>();
+        for (final String feed : mFeeds) {
+            if (random.nextBoolean()) {
+                selected.add(feed);
+            }
+        }
+        mPrefs.edit().putStringSet(getContext().getString(R.string.preference_key_sources), selected).commit();
+        while (!selected.equals(MoneyWatchConfig.get().feeds)) {
+            Thread.sleep(1);
+        }
+        return selected;
+    }
+}
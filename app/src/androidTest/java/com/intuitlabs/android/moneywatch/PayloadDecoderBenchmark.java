@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParser;
+import com.intuit.intuitwear.notifications.ContentBuilder;
+import com.intuit.intuitwear.notifications.IWearNotificationContent;
+
+import java.util.Arrays;
+
+/**
+ * Compares the parse cost per payload of the reflective Gson decoding, as done before,
+ * with the streaming {@link PayloadDecoder}. Each decoder is warmed up, then timed in several rounds;
+ * the fastest and the median round are written to the log.
+ */
+public class PayloadDecoderBenchmark extends AndroidTestCase {
+    private static final String LOG_TAG = PayloadDecoderBenchmark.class.getSimpleName();
+    private static final int WARMUP = 500;
+    private static final int ROUNDS = 11;
+    private static final int RUNS = 1000; // per round
+
+    private String mJson;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mJson = ContentBuilder.getAsset(getContext(), "notification.json");
+    }
+
+    public void testDecodersAgree() {
+        final Gson gson = new Gson();
+        assertEquals(gson.toJson(gson.fromJson(mJson, IWearNotificationContent.class)),
+                gson.toJson(PayloadDecoder.getInstance().decode(mJson).content));
+    }
+
+    public void testParseCost() {
+        final long[] before = perPayload(new Runnable() {
+            @Override
+            public void run() {
+                new Gson().fromJson(mJson, IWearNotificationContent.class);
+                new JsonParser().parse(mJson);
+            }
+        });
+        final long[] after = perPayload(new Runnable() {
+            @Override
+            public void run() {
+                PayloadDecoder.getInstance().decode(mJson);
+            }
+        });
+        Log.i(LOG_TAG, String.format("Parse cost per payload, Gson: %d ns (median %d ns), PayloadDecoder: %d ns (median %d ns)",
+                before[0], before[ROUNDS / 2], after[0], after[ROUNDS / 2]));
+        assertTrue(after[ROUNDS / 2] < before[ROUNDS / 2]);
+    }
+
+    /**
+     * @return {@link long[]} parse cost per payload of every round, in ns, sorted
+     */
+    private static long[] perPayload(final Runnable parse) {
+        for (int i = 0; i < WARMUP; i++) {
+            parse.run();
+        }
+        final long[] rounds = new long[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                parse.run();
+            }
+            rounds[round] = (System.nanoTime() - start) / RUNS;
+        }
+        Arrays.sort(rounds);
+        return rounds;
+    }
+}
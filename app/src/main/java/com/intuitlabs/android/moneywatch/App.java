@@ -44,6 +44,7 @@ public class App extends Application {
 
     /**
      * Returns a unique id to address the user from the remote side.
+     * This scans all accounts, so {@link Startup} only calls it once and keeps the id.
      *
      * @return {@link String} unique id, most likely, the user's email address.
      */
@@ -62,7 +63,22 @@ public class App extends Application {
 
     @Override
     public void onCreate() {
+        final long start = System.nanoTime();
         super.onCreate();
         mContext = this.getApplicationContext();
+        Startup.onApplicationCreated(start);
+    }
+
+    /**
+     * Once the UI is no longer visible, staged archive items get written to disk, in the background.
+     *
+     * @param level {@link int} memory trim level
+     */
+    @Override
+    public void onTrimMemory(final int level) {
+        super.onTrimMemory(level);
+        if (TRIM_MEMORY_UI_HIDDEN <= level) {
+            Archive.getInstance().requestFlush();
+        }
     }
 }
\ No newline at end of file
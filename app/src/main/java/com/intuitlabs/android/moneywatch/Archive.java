@@ -21,49 +21,589 @@
  */
 package com.intuitlabs.android.moneywatch;
 
+import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
+import android.util.Log;
 
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+import com.intuitlabs.android.moneywatch.core.ArchiveStore;
+import com.intuitlabs.android.moneywatch.core.Clock;
+import com.intuitlabs.android.moneywatch.core.FileStorage;
+import com.intuitlabs.android.moneywatch.core.RetentionPolicy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>Archive</code> retains received notifications, newest first.
+ * The entries and the original JSON payloads are kept by an {@link ArchiveStore}, in logs in the app's
+ * private files directory, which makes adding an item independent of the archive's size.
+ * Unless disabled in the settings, entries are also kept in an {@link ArchiveIndex}, to {@link #search} headlines.
+ * <p/>
+ * The archive has a single writer thread, which owns persistence: new items are staged, group commits written,
+ * the archive compacted and cleared, and the index toggled, only on that thread, one task after the other.
+ * Other threads hand their changes to it, through {@link #execute}, {@link #post}, {@link #requestFlush()},
+ * {@link #compact()} or {@link #clear()}. Reading works on any thread, the store is opened, and migrated,
+ * on the writer thread too, the first read waits for that.
+ * <p/>
+ * New items are staged in memory first and written to the logs in one group commit, once
+ * {@link #FLUSH_SIZE} items are staged, {@link #FLUSH_DELAY_MS} after the first item got staged, or when
+ * {@link #requestFlush()} is called, e.g. when the app goes into the background. Staged items are readable right away.
+ * <p/>
+ * The {@link RetentionPolicy} is enforced by a compaction pass, running on the writer thread after every
+ * group commit or when {@link #compact()} is called. Compaction drops whole segments and never rewrites entries.
+ * <p/>
+ * Changes are published as typed events to {@link OnArchiveChangeListener}s, allowing views to apply
+ * only the change, instead of reloading the archive.
+ */
 public class Archive {
     private static final Archive archive = new Archive();
+    private static final String LOG_TAG = Archive.class.getName();
     private static final String DELIMITER = "<<<>>>";
+    private static final int FLUSH_SIZE = 16;
+    private static final long FLUSH_DELAY_MS = 2000;
+    /**
+     * Set to false, to not keep the original payloads at all.
+     */
+    private static final boolean KEEP_PAYLOADS = true;
+
+    private final List<OnArchiveChangeListener> mListeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService mWriter = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(final Runnable r) {
+            mWriterThread = new Thread(r, "archive-writer");
+            return mWriterThread;
+        }
+    });
+    private final Callable<ArchiveStore> mOpenTask = new Callable<ArchiveStore>() {
+        @Override
+        public ArchiveStore call() {
+            return open();
+        }
+    };
+    private volatile Thread mWriterThread;
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+            runCompaction();
+        }
+    };
+    private final Runnable mCompactTask = new Runnable() {
+        @Override
+        public void run() {
+            runCompaction();
+        }
+    };
+    private volatile ArchiveStore mStore; // read without the lock, by the metrics
+    private ArchiveIndex mIndex;
+
+    static {
+        Metrics.gauge("archive.flushes", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return archive.getFlushCount();
+            }
+        });
+        Metrics.gauge("archive.saved_writes", new Metrics.Gauge() {
+            @Override
+            public long get() {
+                return archive.getSavedWriteCount();
+            }
+        });
+    }
+
+    /**
+     * Interface definition for callbacks to be invoked, after the archive has changed.
+     * Callbacks are invoked on the thread that changed the archive, outside of any lock.
+     */
+    public interface OnArchiveChangeListener {
+        /**
+         * A new entry has been added on top of the archive.
+         *
+         * @param entry {@link ArchiveEntry}
+         */
+        void onEntryInserted(ArchiveEntry entry);
+
+        /**
+         * The oldest entries have been dropped, to keep the archive within its size.
+         *
+         * @param seq {@link long} all entries with a lower sequence number have been dropped
+         */
+        void onEntriesEvicted(long seq);
+
+        /**
+         * All entries have been dropped.
+         */
+        void onArchiveCleared();
+    }
 
     public static Archive getInstance() {
         return archive;
     }
 
     /**
-     * Saves the new item on top of already saved items, but keeps no more then MAX items.
+     * Runs a task on the writer thread, after all tasks handed to it before.
+     *
+     * @param task {@link Runnable}
+     */
+    public void execute(final Runnable task) {
+        mWriter.execute(task);
+    }
+
+    /**
+     * Saves the new item on top of already saved items, on the writer thread, for callers on any other thread.
      *
      * @param item {@link String} - original JSON payload
      */
-    public void addItem(final String item) {
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(App.getContext());
-        final int MAX = prefs.getInt(App.getContext().getString(R.string.preference_key_size), 12);
-        final String KEY = App.getContext().getString(R.string.preference_key_archive);
+    public void post(final String item) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                addItem(item);
+            }
+        });
+    }
 
-        String archive = prefs.getString(KEY, "");
-        if (item!=null) {
-            archive = item + DELIMITER + archive;
-        }
-        String[] items = archive.split(DELIMITER);
+    /**
+     * Saves the new item on top of already saved items, but keeps no more then MAX items.
+     * Only to be called on the writer thread.
+     *
+     * @param item {@link String} - original JSON payload, or null to only enforce the archive size
+     * @return {@link long} sequence number of the new entry, or -1 if no item was given
+     */
+    public long addItem(final String item) {
+        return addItem(item, null);
+    }
 
-        if (items.length > MAX) {
-            archive = "";
-            for (int i = 0; i < MAX; i++) {
-                archive += items[i] + DELIMITER;
+    /**
+     * Saves the new item on top of already saved items, without decoding it again.
+     * Only to be called on the writer thread.
+     *
+     * @param item    {@link String} - original JSON payload, or null to only enforce the archive size
+     * @param decoded {@link ArchiveEntry} the fields already extracted from the payload, or null to extract them here
+     * @return {@link long} sequence number of the new entry, or -1 if no item was given
+     */
+    public long addItem(final String item, final ArchiveEntry decoded) {
+        ArchiveEntry entry = null;
+        final long evicted;
+        if (item == null) {
+            compact();
+            evicted = -1;
+        } else {
+            final int staged;
+            synchronized (this) {
+                final ArchiveStore store = store();
+                entry = store.stage(item, decoded);
+                staged = store.getStagedCount();
+                evicted = store.evict(maxSize());
+            }
+            if (FLUSH_SIZE <= staged) {
+                requestFlush();
+            } else if (staged == 1) {
+                mWriter.schedule(mFlushTask, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+            }
+        }
+        for (final OnArchiveChangeListener listener : mListeners) {
+            if (entry != null) {
+                listener.onEntryInserted(entry);
+            }
+            if (0 <= evicted) {
+                listener.onEntriesEvicted(evicted);
             }
         }
+        return entry != null ? entry.seq : -1;
+    }
+
+    /**
+     * Drops all entries from the archive, on the writer thread.
+     */
+    public void clear() {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Archive.this) {
+                    flush();
+                    final long start;
+                    try {
+                        start = mStore.clear();
+                    } catch (IOException e) {
+                        Log.e(LOG_TAG, "Archive not cleared, " + e);
+                        return;
+                    }
+                    if (mIndex != null) {
+                        mIndex.deleteBefore(start);
+                    }
+                }
+                for (final OnArchiveChangeListener listener : mListeners) {
+                    listener.onArchiveCleared();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return {@link List} the retained entries, newest first, including the staged ones.
+     */
+    public List<ArchiveEntry> getEntries() {
+        return page(Long.MAX_VALUE, maxSize());
+    }
+
+    /**
+     * Reads a page of entries, to show the archive one visible window at a time.
+     * Only the segments holding the requested entries are read.
+     *
+     * @param beforeSeq {@link long} sequence number following the newest entry to return,
+     *                  {@link Long#MAX_VALUE} for the first page, the last returned entry's sequence number for the next page
+     * @param limit     {@link int} maximum number of entries to return
+     * @return {@link List} of entries, newest first, empty once the end of the archive has been reached
+     */
+    public List<ArchiveEntry> page(final long beforeSeq, final int limit) {
+        return store().page(beforeSeq, limit, maxSize());
+    }
 
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(KEY, archive);
-        editor.apply();
+    /**
+     * @param seq {@link long} sequence number
+     * @return {@link ArchiveEntry} or null, if the entry is no longer part of the archive.
+     */
+    public ArchiveEntry getEntry(final long seq) {
+        final List<ArchiveEntry> page = page(seq + 1, 1);
+        return !page.isEmpty() && page.get(0).seq == seq ? page.get(0) : null;
     }
 
+    /**
+     * Entries have consecutive sequence numbers, from {@link #getFirstSeq()} up to, but excluding {@link #getNextSeq()}.
+     *
+     * @return {@link long} sequence number of the oldest retained entry.
+     */
+    public long getFirstSeq() {
+        return store().getFirstSeq(maxSize());
+    }
+
+    /**
+     * @return {@link long} sequence number the next added entry will get.
+     */
+    public long getNextSeq() {
+        return store().getNextSeq();
+    }
+
+    /**
+     * @return {@link String[]} the retained JSON payloads, newest first, including the staged ones.
+     */
     public String[] getItems() {
-        final String KEY = App.getContext().getString(R.string.preference_key_archive);
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(App.getContext());
-        final String archive = prefs.getString(KEY, null);
-        return archive == null ? new String[0] : archive.split(DELIMITER);
+        final List<ArchiveEntry> entries = getEntries();
+        final List<String> items = new ArrayList<>(entries.size());
+        for (final ArchiveEntry entry : entries) {
+            final String payload = getPayload(entry.seq);
+            if (payload != null) {
+                items.add(payload);
+            }
+        }
+        return items.toArray(new String[items.size()]);
+    }
+
+    /**
+     * Reads an original JSON payload from the payload log.
+     *
+     * @param seq {@link long} sequence number of the {@link ArchiveEntry}
+     * @return {@link String} JSON payload or null, if the payload is not kept
+     */
+    public String getPayload(final long seq) {
+        return store().getPayload(seq);
+    }
+
+    /**
+     * @return {@link float} compression ratio achieved for the payloads archived since the app started.
+     */
+    public float getPayloadCompressionRatio() {
+        return store().getPayloadCompressionRatio();
+    }
+
+    /**
+     * Searches the headlines and texts of retained entries, using the {@link ArchiveIndex} if enabled,
+     * or scanning all retained entries otherwise. Should not be called on the main thread.
+     * Only the index and the staged entries are taken under the archive's lock, the query itself runs without it,
+     * so that it does not stall adding new items.
+     *
+     * @param query {@link String} words to search for
+     * @param limit {@link int} maximum number of results
+     * @return {@link List} of matching entries, newest first
+     */
+    public List<ArchiveEntry> search(final String query, final int limit) {
+        final List<ArchiveEntry> result = new ArrayList<>();
+        if (query.trim().isEmpty()) {
+            return result;
+        }
+        final String[] words = query.toLowerCase(Locale.getDefault()).trim().split("\\s+");
+        final ArchiveIndex index;
+        final List<ArchiveEntry> staged;
+        final ArchiveStore store = store(); // opens the index too, on first use
+        synchronized (this) {
+            index = mIndex;
+            staged = index != null ? store.getStaged() : null;
+        }
+        final List<ArchiveEntry> candidates = index != null ? staged : getEntries();
+        // entries staged here may get flushed to the index before it is queried, those are only taken from here
+        final long stagedFrom = staged == null || staged.isEmpty() ? Long.MAX_VALUE : staged.get(0).seq;
+        if (index != null) {
+            Collections.reverse(candidates); // newest first
+        }
+        for (final ArchiveEntry entry : candidates) {
+            if (result.size() < limit && matches(entry, words)) {
+                result.add(entry);
+            }
+        }
+        if (index != null && result.size() < limit) {
+            for (final ArchiveEntry entry : index.search(query, limit - result.size())) {
+                if (mStore.getEvictedBefore() <= entry.seq && entry.seq < stagedFrom) {
+                    result.add(entry);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Enables or disables the {@link ArchiveIndex} on the writer thread. Enabling indexes all retained entries,
+     * disabling deletes the index database.
+     *
+     * @param enabled {@link boolean}
+     */
+    public void setSearchIndexEnabled(final boolean enabled) {
+        mWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Archive.this) {
+                    store();
+                    if (enabled && mIndex == null) {
+                        openIndex();
+                    } else if (!enabled && mIndex != null) {
+                        mIndex.close();
+                        mIndex = null;
+                        App.getContext().deleteDatabase(ArchiveIndex.DATABASE_NAME);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the staged items and enforces the {@link RetentionPolicy} on the writer thread.
+     */
+    public void requestFlush() {
+        mWriter.execute(mFlushTask);
+    }
+
+    /**
+     * Enforces the {@link RetentionPolicy} on the writer thread, e.g. after it has been changed.
+     */
+    public void compact() {
+        mWriter.execute(mCompactTask);
+    }
+
+    /**
+     * Writes all staged items to the log in a single group commit. Runs on the writer thread only.
+     */
+    private synchronized void flush() {
+        final List<ArchiveEntry> flushed = store().flush();
+        if (mIndex != null && !flushed.isEmpty()) {
+            mIndex.insert(flushed);
+        }
+    }
+
+    /**
+     * @return {@link long} size of the archive's logs on disk, the search index is not included.
+     */
+    public long getSizeInBytes() {
+        return store().getSizeInBytes();
+    }
+
+    /**
+     * Moves the start of the archive forward, as far as the {@link RetentionPolicy} requires,
+     * and drops all segments and index rows before it. Runs on the writer thread only.
+     */
+    private void runCompaction() {
+        final long start;
+        synchronized (this) {
+            start = store().compact(MoneyWatchConfig.get().retention);
+            if (mIndex != null) {
+                mIndex.deleteBefore(mStore.getEvictedBefore());
+            }
+        }
+        if (0 <= start) {
+            Log.d(LOG_TAG, "Compacted archive, starting at " + start);
+            for (final OnArchiveChangeListener listener : mListeners) {
+                listener.onEntriesEvicted(start);
+            }
+        }
+    }
+
+    /**
+     * Neither opens the archive, nor waits for a running flush, so the metrics can be read on the main thread.
+     *
+     * @return {@link long} number of group commits written so far.
+     */
+    public long getFlushCount() {
+        final ArchiveStore store = mStore;
+        return store != null ? store.getFlushCount() : 0;
+    }
+
+    /**
+     * Neither opens the archive, nor waits for a running flush, so the metrics can be read on the main thread.
+     *
+     * @return {@link long} number of disk writes, group commits have replaced so far.
+     */
+    public long getSavedWriteCount() {
+        final ArchiveStore store = mStore;
+        return store != null ? store.getSavedWriteCount() : 0;
+    }
+
+    /**
+     * Register a callback to be invoked when the archive changes.
+     * Callbacks are invoked on the thread that changed the archive.
+     *
+     * @param listener {@link OnArchiveChangeListener}
+     */
+    public void registerOnArchiveChangeListener(final OnArchiveChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Unregister a previous registered callback.
+     *
+     * @param listener {@link OnArchiveChangeListener}
+     */
+    public void unregisterOnArchiveChangeListener(final OnArchiveChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private static boolean matches(final ArchiveEntry entry, final String[] words) {
+        final String title = entry.title.toLowerCase(Locale.getDefault());
+        final String text = entry.text.toLowerCase(Locale.getDefault());
+        for (final String word : words) {
+            if (!title.contains(word) && !text.contains(word)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Opens the index and adds retained entries, which are not indexed yet.
+     */
+    private void openIndex() {
+        mIndex = new ArchiveIndex(App.getContext());
+        final long indexed = mIndex.maxSeq();
+        final List<ArchiveEntry> missing = new ArrayList<>();
+        for (final ArchiveEntry entry : getEntries()) {
+            if (indexed < entry.seq && entry.seq < mStore.getFlushedSeq()) {
+                missing.add(entry);
+            }
+        }
+        if (!missing.isEmpty()) {
+            mIndex.insert(missing);
+            Log.i(LOG_TAG, "Indexed " + missing.size() + " archived items");
+        }
+    }
+
+    private static int maxSize() {
+        return MoneyWatchConfig.get().archiveSize;
+    }
+
+    /**
+     * Opens the store lazily, on the writer thread, waiting for it on any other thread.
+     * Must not be called while holding the archive's lock, other than on the writer thread.
+     *
+     * @return {@link ArchiveStore}
+     */
+    private ArchiveStore store() {
+        final ArchiveStore store = mStore;
+        if (store != null) {
+            return store;
+        }
+        if (Thread.currentThread() == mWriterThread) {
+            return open();
+        }
+        final Future<ArchiveStore> opened = mWriter.submit(mOpenTask);
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return opened.get();
+                } catch (InterruptedException e) {
+                    interrupted = true; // the store is opened anyway, the interrupt is kept for the caller
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not open the archive", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Opens the store and, on first start, moves payloads that earlier versions kept, into the store.
+     * Runs on the writer thread only.
+     *
+     * @return {@link ArchiveStore}
+     */
+    private synchronized ArchiveStore open() {
+        if (mStore == null) {
+            final Context context = App.getContext();
+            final ArchiveStore store = new ArchiveStore(new FileStorage(context.getFilesDir()), Clock.SYSTEM, KEEP_PAYLOADS);
+            migrate(context, store);
+            mStore = store;
+            if (MoneyWatchConfig.get().searchIndex) {
+                openIndex();
+            }
+        }
+        return mStore;
+    }
+
+    /**
+     * Earlier versions kept the original payloads as one delimited string in the DefaultSharedPreferences.
+     * They get written to the store in one group commit, before anything else gets staged. The string is only deleted,
+     * once that commit succeeded, otherwise the staged copies are dropped again, and the migration is retried on the next start.
+     */
+    private static void migrate(final Context context, final ArchiveStore store) {
+        final List<String> items = new ArrayList<>(); // newest first
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final String KEY = context.getString(R.string.preference_key_archive);
+        final String old = prefs.getString(KEY, null);
+        if (old == null) {
+            return;
+        }
+        for (final String item : old.split(DELIMITER)) {
+            if (!item.isEmpty()) {
+                items.add(item);
+            }
+        }
+        for (int i = items.size() - 1; 0 <= i; i--) { // oldest first
+            store.stage(items.get(i));
+        }
+        store.flush();
+        if (0 < store.getStagedCount()) {
+            store.dropStaged();
+            Log.w(LOG_TAG, "Could not migrate " + items.size() + " archived items, retrying on the next start");
+            return;
+        }
+        if (!items.isEmpty()) {
+            Log.i(LOG_TAG, "Migrated " + items.size() + " archived items");
+        }
+        prefs.edit().remove(KEY).apply();
     }
 }
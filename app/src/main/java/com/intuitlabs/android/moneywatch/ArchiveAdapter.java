@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The <code>ArchiveAdapter</code> binds the {@link Archive}'s entries to a list, newest first.
+ * Since archive entries have consecutive sequence numbers, a list position maps directly to a sequence number,
+ * and only the entries around the visible rows are read, one page at a time, while the user scrolls.
+ * Pages are read in the background, rows are shown empty, until their page has been read.
+ * Entries missing from a read page, e.g. because their record could not be decoded, are marked as unreadable,
+ * and shown as a placeholder row, instead of being read again and again.
+ * <p/>
+ * Read entries are kept in a small cache, keyed by sequence number, and row views are recycled,
+ * so that scrolling over already seen rows neither reads from the archive nor allocates.
+ */
+class ArchiveAdapter extends BaseAdapter {
+    private static final int PAGE_SIZE = ArchiveLoader.PAGE_SIZE;
+    /**
+     * Number of cached entries, must be a power of two and larger than {@link #PAGE_SIZE}.
+     */
+    private static final int CACHE_SIZE = 256;
+
+    private final LayoutInflater mInflater;
+    private final ArchiveEntry[] mCache = new ArchiveEntry[CACHE_SIZE];
+    private final long[] mUnreadable = new long[CACHE_SIZE]; // sequence numbers missing from a read page, same slots as the cache
+    private long mStart; // sequence number of the oldest entry
+    private long mEnd;   // sequence number of the newest entry + 1
+    private long mRequested = -1; // sequence number of the last missing entry, while a page is read
+
+    /**
+     * Row views keep references to their child views, to not look them up again, when recycled.
+     */
+    private static class ViewHolder {
+        TextView title;
+        TextView text;
+    }
+
+    ArchiveAdapter(final Context context, final ArchiveLoader.Snapshot snapshot) {
+        mInflater = LayoutInflater.from(context);
+        Arrays.fill(mUnreadable, -1);
+        mStart = snapshot.start;
+        mEnd = snapshot.end;
+        cache(snapshot.newest);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public int getCount() {
+        return (int) (mEnd - mStart);
+    }
+
+    /**
+     * Returns the cached entry, or starts reading the page around the requested position from the {@link Archive}.
+     *
+     * @param position {@link int} list position, 0 is the newest entry
+     * @return {@link ArchiveEntry} or null, if the entry has not been read yet, could not be read,
+     * or is no longer part of the archive.
+     */
+    @Override
+    public ArchiveEntry getItem(final int position) {
+        final long seq = mEnd - 1 - position;
+        final ArchiveEntry entry = mCache[(int) seq & (CACHE_SIZE - 1)];
+        if (entry != null && entry.seq == seq) {
+            return entry;
+        }
+        if (isUnreadable(seq)) {
+            return null;
+        }
+        if (mRequested < 0) {
+            read(seq);
+        }
+        mRequested = seq;
+        return null;
+    }
+
+    /**
+     * @return {@link long} the entry's sequence number, which is stable while the list changes.
+     */
+    @Override
+    public long getItemId(final int position) {
+        return mEnd - 1 - position;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public View getView(final int position, final View convertView, final ViewGroup parent) {
+        final View rowView;
+        final ViewHolder holder;
+        if (convertView == null) {
+            rowView = mInflater.inflate(R.layout.list_item, parent, false);
+            holder = new ViewHolder();
+            holder.title = (TextView) rowView.findViewById(R.id.title);
+            holder.text = (TextView) rowView.findViewById(R.id.text);
+            rowView.setTag(holder);
+        } else {
+            rowView = convertView;
+            holder = (ViewHolder) convertView.getTag();
+        }
+        final ArchiveEntry entry = getItem(position);
+        if (entry == null && isUnreadable(mEnd - 1 - position)) {
+            holder.title.setText(R.string.archive_unreadable);
+            holder.text.setText(null);
+        } else {
+            holder.title.setText(entry != null ? entry.title : null);
+            holder.text.setText(entry != null ? entry.text : null);
+        }
+        return rowView;
+    }
+
+    /**
+     * Applies a newer snapshot, e.g. after the archive got refreshed in the background.
+     *
+     * @param snapshot {@link ArchiveLoader.Snapshot}
+     */
+    void swap(final ArchiveLoader.Snapshot snapshot) {
+        mEnd = Math.max(mEnd, snapshot.end);
+        mStart = Math.min(Math.max(mStart, snapshot.start), mEnd);
+        cache(snapshot.newest);
+        notifyDataSetChanged();
+    }
+
+    /**
+     * Adds the new entry on top, unless the adapter was created after the entry got added.
+     *
+     * @param entry {@link ArchiveEntry}
+     * @return <code>true</code> if a row got added at position 0
+     */
+    boolean insert(final ArchiveEntry entry) {
+        if (mEnd <= entry.seq) {
+            mEnd = entry.seq + 1;
+            mCache[(int) entry.seq & (CACHE_SIZE - 1)] = entry;
+            notifyDataSetChanged();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Removes evicted entries from the bottom.
+     *
+     * @param seq {@link long} all entries with a lower sequence number have been dropped
+     */
+    void evict(final long seq) {
+        if (mStart < seq) {
+            mStart = Math.min(seq, mEnd);
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    void clear() {
+        mStart = mEnd;
+        notifyDataSetChanged();
+    }
+
+    private boolean isUnreadable(final long seq) {
+        return mUnreadable[(int) seq & (CACHE_SIZE - 1)] == seq;
+    }
+
+    private void cache(final List<ArchiveEntry> entries) {
+        for (final ArchiveEntry e : entries) {
+            mCache[(int) e.seq & (CACHE_SIZE - 1)] = e;
+        }
+    }
+
+    /**
+     * Reads the page around the given entry in the background, and then the page around the entry
+     * that was requested last, if that is still missing, and has not just been read.
+     */
+    private void read(final long seq) {
+        new AsyncTask<Long, Void, List<ArchiveEntry>>() {
+            private long mFirst;
+            private long mBefore;
+
+            @Override
+            protected List<ArchiveEntry> doInBackground(final Long... before) {
+                mFirst = Archive.getInstance().getFirstSeq();
+                mBefore = before[0];
+                return Archive.getInstance().page(mBefore, PAGE_SIZE);
+            }
+
+            @Override
+            protected void onPostExecute(final List<ArchiveEntry> page) {
+                cache(page);
+                for (long s = Math.max(mFirst, mBefore - PAGE_SIZE); s < mBefore; s++) {
+                    final ArchiveEntry read = mCache[(int) s & (CACHE_SIZE - 1)];
+                    if (read == null || read.seq != s) {
+                        mUnreadable[(int) s & (CACHE_SIZE - 1)] = s; // the page covers it, but it could not be read
+                    }
+                }
+                mStart = Math.min(Math.max(mStart, mFirst), mEnd); // in case an eviction was missed
+                final long requested = mRequested;
+                final ArchiveEntry entry = mCache[(int) requested & (CACHE_SIZE - 1)];
+                if (mStart <= requested && requested < mEnd && (entry == null || entry.seq != requested)
+                        && !isUnreadable(requested) && requested != seq) {
+                    read(requested);
+                } else {
+                    mRequested = -1;
+                }
+                notifyDataSetChanged();
+            }
+        }.execute(Math.min(seq + PAGE_SIZE / 2 + 1, mEnd));
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <code>ArchiveIndex</code> keeps a copy of the {@link ArchiveEntry}s in a SQLite database, with a full-text
+ * index over title and text, to search the archive's headlines.
+ * Entries are written with prepared statements, one transaction per group commit.
+ * <p/>
+ * All methods access the database and should not be called on the main thread.
+ */
+class ArchiveIndex extends SQLiteOpenHelper {
+    static final String DATABASE_NAME = "archive.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private SQLiteStatement mInsertEntry;
+    private SQLiteStatement mInsertText;
+    private boolean mClosed;
+
+    ArchiveIndex(final Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void onCreate(final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE entries (seq INTEGER PRIMARY KEY, feed TEXT, received INTEGER, title TEXT, text TEXT, link TEXT)");
+        db.execSQL("CREATE INDEX entries_feed_received ON entries (feed, received)");
+        db.execSQL("CREATE INDEX entries_received ON entries (received)");
+        db.execSQL("CREATE VIRTUAL TABLE entries_fts USING fts4 (title, text)");
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS entries");
+        db.execSQL("DROP TABLE IF EXISTS entries_fts");
+        onCreate(db);
+    }
+
+    /**
+     * Adds entries to the index, in a single transaction.
+     *
+     * @param entries {@link List} of {@link ArchiveEntry}
+     */
+    synchronized void insert(final List<ArchiveEntry> entries) {
+        final SQLiteDatabase db = getWritableDatabase();
+        if (mInsertEntry == null) {
+            mInsertEntry = db.compileStatement("INSERT OR REPLACE INTO entries (seq, feed, received, title, text, link) VALUES (?, ?, ?, ?, ?, ?)");
+            mInsertText = db.compileStatement("INSERT OR REPLACE INTO entries_fts (docid, title, text) VALUES (?, ?, ?)");
+        }
+        db.beginTransaction();
+        try {
+            for (final ArchiveEntry entry : entries) {
+                mInsertEntry.bindLong(1, entry.seq);
+                mInsertEntry.bindString(2, entry.feed);
+                mInsertEntry.bindLong(3, entry.received);
+                mInsertEntry.bindString(4, entry.title);
+                mInsertEntry.bindString(5, entry.text);
+                mInsertEntry.bindString(6, entry.link);
+                mInsertEntry.executeInsert();
+
+                mInsertText.bindLong(1, entry.seq);
+                mInsertText.bindString(2, entry.title);
+                mInsertText.bindString(3, entry.text);
+                mInsertText.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Removes all entries, older than the given sequence number.
+     *
+     * @param seq {@link long} sequence number of the oldest retained entry
+     */
+    synchronized void deleteBefore(final long seq) {
+        final SQLiteDatabase db = getWritableDatabase();
+        final String[] args = {String.valueOf(seq)};
+        db.beginTransaction();
+        try {
+            db.delete("entries", "seq < ?", args);
+            db.delete("entries_fts", "docid < ?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return {@link long} sequence number of the newest indexed entry, or -1 if the index is empty.
+     */
+    synchronized long maxSeq() {
+        final Cursor c = getReadableDatabase().rawQuery("SELECT MAX(seq) FROM entries", null);
+        try {
+            return c.moveToFirst() && !c.isNull(0) ? c.getLong(0) : -1;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Closes the database, a search still running with a reference to this index then finds nothing,
+     * instead of opening the database again.
+     */
+    @Override
+    public synchronized void close() {
+        mClosed = true;
+        super.close();
+    }
+
+    /**
+     * Full-text search over title and text. Every word of the query has to match,
+     * the last word is matched as a prefix, to support search-as-you-type.
+     *
+     * @param query {@link String} words to search for
+     * @param limit {@link int} maximum number of results
+     * @return {@link List} of matching entries, newest first
+     */
+    synchronized List<ArchiveEntry> search(final String query, final int limit) {
+        final List<ArchiveEntry> result = new ArrayList<>();
+        final String match = toMatch(query);
+        if (match.isEmpty() || mClosed) {
+            return result;
+        }
+        final Cursor c = getReadableDatabase().rawQuery(
+                "SELECT e.seq, e.title, e.text, e.link, e.feed, e.received FROM entries e" +
+                        " JOIN entries_fts f ON f.docid = e.seq" +
+                        " WHERE entries_fts MATCH ? ORDER BY e.seq DESC LIMIT ?",
+                new String[]{match, String.valueOf(limit)});
+        try {
+            while (c.moveToNext()) {
+                result.add(new ArchiveEntry(c.getLong(0), c.getString(1), c.getString(2), c.getString(3), c.getString(4), c.getLong(5)));
+            }
+        } finally {
+            c.close();
+        }
+        return result;
+    }
+
+    /**
+     * Turns user input into a FTS query, quoting every word, so that FTS operators in the input have no effect.
+     *
+     * @param query {@link String} user input
+     * @return {@link String} FTS match expression
+     */
+    static String toMatch(final String query) {
+        final StringBuilder sb = new StringBuilder();
+        final String[] words = query.replace('"', ' ').trim().split("\\s+");
+        for (int i = 0; i < words.length; i++) {
+            if (!words[i].isEmpty()) {
+                sb.append(sb.length() == 0 ? "\"" : " \"").append(words[i]).append(i == words.length - 1 ? "*\"" : "\"");
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+
+import java.util.List;
+
+/**
+ * The <code>ArchiveLoader</code> opens the {@link Archive} and reads its newest page on a background thread.
+ * Like every {@link android.content.Loader}, it is retained across configuration changes, so that its last
+ * {@link Snapshot} is delivered right away, when the list gets shown again, followed by a refresh in the background.
+ */
+class ArchiveLoader extends AsyncTaskLoader<ArchiveLoader.Snapshot> {
+    static final int PAGE_SIZE = 50;
+
+    private Snapshot mSnapshot;
+
+    /**
+     * Immutable state of the archive, at the time it was loaded.
+     */
+    static final class Snapshot {
+        /**
+         * Sequence number of the oldest entry.
+         */
+        final long start;
+        /**
+         * Sequence number of the newest entry + 1.
+         */
+        final long end;
+        /**
+         * Up to {@link #PAGE_SIZE} of the newest entries, newest first.
+         */
+        final List<ArchiveEntry> newest;
+
+        Snapshot(final long start, final long end, final List<ArchiveEntry> newest) {
+            this.start = start;
+            this.end = end;
+            this.newest = newest;
+        }
+    }
+
+    ArchiveLoader(final Context context) {
+        super(context);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public Snapshot loadInBackground() {
+        final Archive archive = Archive.getInstance();
+        final long end = archive.getNextSeq();
+        final List<ArchiveEntry> newest = archive.page(end, PAGE_SIZE);
+        return new Snapshot(Math.min(archive.getFirstSeq(), end), end, newest);
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public void deliverResult(final Snapshot snapshot) {
+        if (!isReset()) {
+            mSnapshot = snapshot;
+            if (isStarted()) {
+                super.deliverResult(snapshot);
+            }
+        }
+    }
+
+    /**
+     * Delivers the retained snapshot right away, and refreshes it in the background.
+     */
+    @Override
+    protected void onStartLoading() {
+        if (mSnapshot != null) {
+            deliverResult(mSnapshot);
+        }
+        forceLoad();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    protected void onReset() {
+        onStopLoading();
+        mSnapshot = null;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+/**
+ * Receives connectivity changes, only while the {@link GatewayOutbox} holds operations,
+ * and lets the {@link SyncScheduler} send them, once connected.
+ * The receiver is disabled in the manifest and enabled by the {@link SyncScheduler}, so that it
+ * also starts the process, if it has been killed with operations pending.
+ */
+public class ConnectivityReceiver extends BroadcastReceiver {
+
+    /**
+     * @param context {@link Context}
+     * @return {@link boolean} true if there is a network connection
+     */
+    static boolean isConnected(final Context context) {
+        final NetworkInfo info = ((ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE)).getActiveNetworkInfo();
+        return info != null && info.isConnected();
+    }
+
+    /**
+     * Enables or disables receiving connectivity changes.
+     *
+     * @param context {@link Context}
+     * @param enabled {@link boolean}
+     */
+    static void setEnabled(final Context context, final boolean enabled) {
+        final ComponentName component = new ComponentName(context, ConnectivityReceiver.class);
+        final int state = enabled ? PackageManager.COMPONENT_ENABLED_STATE_ENABLED : PackageManager.COMPONENT_ENABLED_STATE_DISABLED;
+        if (context.getPackageManager().getComponentEnabledSetting(component) != state) {
+            context.getPackageManager().setComponentEnabledSetting(component, state, PackageManager.DONT_KILL_APP);
+        }
+    }
+
+    /**
+     * @param context {@link Context}
+     * @param intent  {@link Intent}
+     */
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        if (isConnected(context)) {
+            SyncScheduler.getInstance().requestDrain();
+        }
+    }
+}
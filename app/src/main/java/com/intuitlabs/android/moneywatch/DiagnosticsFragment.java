@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.app.Fragment;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * <code>DiagnosticsFragment</code> shows the app's {@link Metrics}. It is hidden, and only gets shown
+ * by long-clicking the image on top of the archive list.
+ */
+public class DiagnosticsFragment extends Fragment {
+    private TextView mTextView;
+
+    /**
+     * @inheritDoc
+     */
+    @Override
+    public View onCreateView(final LayoutInflater inflater, final ViewGroup container, final Bundle savedInstanceState) {
+        final View rootView = inflater.inflate(R.layout.fragment_diagnostics, container, false);
+        mTextView = (TextView) rootView.findViewById(R.id.metrics);
+        return rootView;
+    }
+
+    /**
+     * Shows the current metrics, every time the fragment is shown.
+     * Gauges are read from components that may be busy, so the metrics are collected in the background.
+     */
+    @Override
+    public void onResume() {
+        super.onResume();
+        new AsyncTask<Void, Void, String>() {
+            @Override
+            protected String doInBackground(final Void... params) {
+                final StringWriter writer = new StringWriter();
+                Metrics.dump(new PrintWriter(writer));
+                return writer.toString();
+            }
+
+            @Override
+            protected void onPostExecute(final String metrics) {
+                if (isAdded()) {
+                    mTextView.setText(metrics);
+                }
+            }
+        }.execute();
+    }
+}
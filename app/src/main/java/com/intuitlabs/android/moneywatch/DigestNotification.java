@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+
+import java.util.List;
+
+/**
+ * A <code>DigestNotification</code> summarizes several messages in one InboxStyle notification,
+ * which is shown on the phone and bridged to the wearable. Posting a digest with the same id again updates it in place.
+ */
+final class DigestNotification {
+    /**
+     * Maximum number of lines an InboxStyle notification shows.
+     */
+    static final int LINES = 5;
+
+    private DigestNotification() {
+    }
+
+    /**
+     * Posts or updates the digest.
+     *
+     * @param id     {@link int} notification id
+     * @param title  {@link String} digest title
+     * @param lines  {@link List} of lines for the newest messages, oldest first, must not be empty,
+     *               only the last {@link #LINES} are shown
+     * @param count  {@link int} number of messages in the digest, at least the number of lines
+     * @param alert  {@link boolean} false to not alert again, if the digest is already shown
+     * @param silent {@link boolean} true to post without sound and vibration, e.g. during quiet time
+     */
+    static void post(final int id, final String title, final List<String> lines, final int count, final boolean alert, final boolean silent) {
+        final Context context = App.getContext();
+        final Notification.InboxStyle style = new Notification.InboxStyle();
+        final int shown = Math.min(LINES, lines.size());
+        for (int i = lines.size() - 1; lines.size() - shown <= i; i--) {
+            style.addLine(lines.get(i));
+        }
+        if (shown < count) {
+            style.setSummaryText(context.getString(R.string.digest_summary, count - shown));
+        }
+        final Notification notification = new Notification.Builder(context)
+                .setSmallIcon(R.drawable.sm_icon)
+                .setContentTitle(title)
+                .setContentText(lines.get(lines.size() - 1))
+                .setNumber(count)
+                .setStyle(style)
+                .setDefaults(silent ? 0 : Notification.DEFAULT_ALL)
+                .setOnlyAlertOnce(!alert)
+                .setAutoCancel(true)
+                .setContentIntent(PendingIntent.getActivity(context, 0, new Intent(context, MainActivity.class), PendingIntent.FLAG_UPDATE_CURRENT))
+                .build();
+        ((NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE)).notify(id, notification);
+    }
+
+    /**
+     * @param entry {@link ArchiveEntry}
+     * @return {@link String} the digest line for the given entry.
+     */
+    static String line(final ArchiveEntry entry) {
+        return entry.text.isEmpty() ? entry.title : entry.text;
+    }
+}
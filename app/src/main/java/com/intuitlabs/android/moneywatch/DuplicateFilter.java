@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The push gateway occasionally redelivers a message. <code>DuplicateFilter</code> remembers a 64-bit
+ * fingerprint of the most recent payloads, to drop a payload that has already been received within the window.
+ * <p/>
+ * Fingerprints are kept in a ring buffer, ordered by arrival, and in an open-addressing hash table of
+ * primitive longs, so a lookup costs O(1) without boxing. The fingerprints are saved to a file by {@link #save()},
+ * to survive a restart of the process.
+ */
+class DuplicateFilter {
+    private static final String LOG_TAG = DuplicateFilter.class.getName();
+    private static final String FILE = "fingerprints";
+    private static final long EMPTY = 0; // fingerprint 0 is remapped, to mark empty table slots
+    private static DuplicateFilter filter;
+
+    private final long mWindowMs;
+    private final long[] mRing;
+    private final long[] mRingTime;
+    private final long[] mTable;
+    private final int mMask;
+    private final File mFile;
+    private int mHead; // oldest ring slot
+    private int mSize;
+    private boolean mDirty;
+
+    /**
+     * @return {@link DuplicateFilter}, sized and with the window defined in the app's resources.
+     */
+    static synchronized DuplicateFilter getInstance() {
+        if (filter == null) {
+            filter = new DuplicateFilter(
+                    new File(App.getContext().getFilesDir(), FILE),
+                    App.getContext().getResources().getInteger(R.integer.dedup_capacity),
+                    App.getContext().getResources().getInteger(R.integer.dedup_window_minutes) * 60 * 1000L);
+        }
+        return filter;
+    }
+
+    /**
+     * @param file     {@link File} the fingerprints are saved in
+     * @param capacity {@link int} maximum number of fingerprints to remember
+     * @param windowMs {@link long} time, in milliseconds, a fingerprint is remembered
+     */
+    DuplicateFilter(final File file, final int capacity, final long windowMs) {
+        mFile = file;
+        mWindowMs = windowMs;
+        mRing = new long[capacity];
+        mRingTime = new long[capacity];
+        int slots = 2;
+        while (slots < 2 * capacity) {
+            slots <<= 1; // load factor stays at or below 0.5
+        }
+        mTable = new long[slots];
+        mMask = slots - 1;
+        load();
+    }
+
+    /**
+     * Checks if the payload has been seen within the window and remembers it otherwise.
+     * A payload that then can not be archived has to be {@link #forget forgotten}, so that its redelivery is not dropped.
+     *
+     * @param payload {@link String}
+     * @return {@link boolean} true if the payload is a duplicate and should be dropped
+     */
+    synchronized boolean isDuplicate(final String payload) {
+        return isDuplicate(fingerprint(payload), System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets a remembered payload, because it could not be handled.
+     *
+     * @param payload {@link String}
+     */
+    synchronized void forget(final String payload) {
+        final long fp = fingerprint(payload);
+        for (int i = mSize - 1; 0 <= i; i--) {
+            final int k = (mHead + i) % mRing.length;
+            if (mRing[k] == fp) {
+                mRing[k] = EMPTY; // the slot stays in the ring, until it expires
+                remove(fp);
+                mDirty = true;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Saves the remembered fingerprints, if any were added since the last save.
+     */
+    synchronized void save() {
+        if (!mDirty) {
+            return;
+        }
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            try {
+                out.writeInt(mSize);
+                for (int i = 0; i < mSize; i++) {
+                    final int k = (mHead + i) % mRing.length;
+                    out.writeLong(mRingTime[k]);
+                    out.writeLong(mRing[k]);
+                }
+            } finally {
+                out.close();
+            }
+            mDirty = false;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, e.toString());
+        }
+    }
+
+    private boolean isDuplicate(final long fp, final long now) {
+        expire(now);
+        if (contains(fp)) {
+            return true;
+        }
+        if (mSize == mRing.length) {
+            evictOldest();
+        }
+        final int k = (mHead + mSize) % mRing.length;
+        mRing[k] = fp;
+        mRingTime[k] = now;
+        mSize++;
+        insert(fp);
+        mDirty = true;
+        return false;
+    }
+
+    private void expire(final long now) {
+        while (0 < mSize && now - mRingTime[mHead] > mWindowMs) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        if (mRing[mHead] != EMPTY) {
+            remove(mRing[mHead]);
+        }
+        mHead = (mHead + 1) % mRing.length;
+        mSize--;
+        mDirty = true;
+    }
+
+    private boolean contains(final long fp) {
+        for (int i = slot(fp); mTable[i] != EMPTY; i = (i + 1) & mMask) {
+            if (mTable[i] == fp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void insert(final long fp) {
+        int i = slot(fp);
+        while (mTable[i] != EMPTY) {
+            i = (i + 1) & mMask;
+        }
+        mTable[i] = fp;
+    }
+
+    /**
+     * Removes a fingerprint from the linear-probing table, shifting following entries back,
+     * so that no tombstones are needed.
+     */
+    private void remove(final long fp) {
+        int i = slot(fp);
+        while (mTable[i] != fp) {
+            if (mTable[i] == EMPTY) {
+                return;
+            }
+            i = (i + 1) & mMask;
+        }
+        int j = i;
+        while (true) {
+            j = (j + 1) & mMask;
+            if (mTable[j] == EMPTY) {
+                break;
+            }
+            final int home = slot(mTable[j]);
+            // move the entry at j into the hole at i, unless its home slot lies cyclically in (i, j]
+            if (i <= j ? (home <= i || j < home) : (home <= i && j < home)) {
+                mTable[i] = mTable[j];
+                i = j;
+            }
+        }
+        mTable[i] = EMPTY;
+    }
+
+    private int slot(final long fp) {
+        final long h = fp * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mMask;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the payload's characters.
+     *
+     * @param payload {@link String}
+     * @return {@link long} fingerprint, never 0
+     */
+    static long fingerprint(final String payload) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < payload.length(); i++) {
+            h ^= payload.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return h == EMPTY ? 1 : h;
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                final int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    final long time = in.readLong();
+                    final long fp = in.readLong();
+                    if (fp != EMPTY && !contains(fp)) {
+                        isDuplicate(fp, time);
+                    }
+                }
+            } finally {
+                in.close();
+            }
+            expire(System.currentTimeMillis());
+            mDirty = false;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, e.toString());
+        }
+    }
+}
@@ -23,17 +23,11 @@ package com.intuitlabs.android.moneywatch;
 
 import android.content.Context;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
 import android.util.Log;
 
 import com.google.android.gcm.GCMBaseIntentService;
-import com.intuit.intuitwear.exceptions.IntuitWearException;
-import com.intuit.intuitwear.notifications.IWearNotificationSender;
-import com.intuit.intuitwear.notifications.IWearNotificationType;
 import com.intuit.mobile.png.sdk.PushNotificationsV2;
-import com.intuit.mobile.png.sdk.UserTypeEnum;
-import com.intuit.mobile.png.sdk.callback.RegisterUserCallback;
 
 
 /**
@@ -43,16 +37,12 @@ import com.intuit.mobile.png.sdk.callback.RegisterUserCallback;
  */
 public class GCMIntentService extends GCMBaseIntentService {
 
-    private static final String GCM_PROJECT_NUMBER = App.getContext().getString(R.string.GCM_PROJECT_NUMBER);
-    private static final String INTUIT_SENDER_ID = App.getContext().getString(R.string.INTUIT_SENDER_ID);
     private static final String LOG_TAG = GCMIntentService.class.getSimpleName();
-    private static final String REG_URL = "https://png.d2d.msg.intuit.com";
 
-    private static String userid;
-    private static String[] groups;
+    private static boolean gatewayInitialized;
 
     public GCMIntentService() {
-        super(GCM_PROJECT_NUMBER);
+        super(App.getContext().getString(R.string.GCM_PROJECT_NUMBER));
     }
 
     /**
@@ -61,76 +51,66 @@ public class GCMIntentService extends GCMBaseIntentService {
      * @param userid  {@link String} how your app refers to this user
      */
     public static void register( final String userid) {
-        GCMIntentService.userid = userid;
-        GCMIntentService.groups = App.getContext().getResources().getStringArray(R.array.feed_defaults);
+        if (!userid.equals(MoneyWatchConfig.get().userId)) {
+            PreferenceManager.getDefaultSharedPreferences(App.getContext()).edit()
+                    .putString(App.getContext().getString(R.string.preference_key_userid), userid)
+                    .apply();
+        }
+        initGateway();
+        PushNotificationsV2.registerForGCMNotifications(App.getContext());
+    }
 
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(App.getContext());
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putString(App.getContext().getString(R.string.preference_key_userid), userid);
-        editor.putBoolean(App.getContext().getString(R.string.preference_key_sync), true);
-        editor.apply();
+    /**
+     * Initializes the Push Notification Gateway sdk, with the endpoint defined in the app's resources,
+     * unless it has been initialized already.
+     */
+    static synchronized void initGateway() {
+        if (!gatewayInitialized) {
+            initGateway(App.getContext().getString(R.string.PNG_URL));
+        }
+    }
 
-        PushNotificationsV2.URL_OVERRIDE = REG_URL;
-        PushNotificationsV2.Environment environment = PushNotificationsV2.Environment.SANDBOX;
-        PushNotificationsV2.initialize(INTUIT_SENDER_ID, GCM_PROJECT_NUMBER, environment);
+    /**
+     * Points the Push Notification Gateway sdk at the given endpoint and initializes it.
+     * {@link #register} uses the endpoint defined in the app's resources, a test may use an in-process stand-in.
+     *
+     * @param url {@link String} base url of the gateway, the sdk appends the api paths
+     */
+    static synchronized void initGateway(final String url) {
+        PushNotificationsV2.URL_OVERRIDE = url;
+        PushNotificationsV2.initialize(App.getContext().getString(R.string.INTUIT_SENDER_ID),
+                App.getContext().getString(R.string.GCM_PROJECT_NUMBER), PushNotificationsV2.Environment.SANDBOX);
         PushNotificationsV2.setLogging(true);
-        PushNotificationsV2.registerForGCMNotifications(App.getContext());
+        gatewayInitialized = true;
     }
 
     /**
      * Google will call this method, providing you a unique registrationId for this device.
-     * We recommended to save the registrationId to local preferences for later use.
-     * e.g. saveRegistrationId(registrationId);
+     * The registrationId is kept by the {@link com.google.android.gcm.GCMRegistrar}. Since the gateway does not know it yet,
+     * the {@link SyncScheduler} registers the user with the selected groups, for this registrationId.
      *
      * @param context        {@link Context} Application context
      * @param registrationId {@link String} unique registrationId for this device
      */
     @Override
     protected void onRegistered(final Context context, final String registrationId) {
-        PushNotificationsV2.registerUser(
-                this,
-                GCMIntentService.userid,
-                UserTypeEnum.OTHER,
-                GCMIntentService.groups,
-                registrationId,
-                new RegisterUserCallback() {
-
-                    @Override
-                    public void onUserRegistered() {
-                        Log.i(LOG_TAG, "Registration call to PNG servers was accepted");
-                    }
-
-                    @Override
-                    public void onError(String code, String description) {
-                        Log.i(LOG_TAG, String.format("Received error callback from PNG. Error code= %s, description= %s", code, description));
-                    }
-                });
+        Log.i(LOG_TAG, "Registered with GCM");
+        SyncScheduler.getInstance().requestDrain();
     }
 
     /**
      * This callback method is invoked when GCM delivers a notification to the device.
      * <p/>
-     * Assuming that the json encoded message is a valid (see IntuitWear JSONSchema) document,
-     * we acquire an instance of a {@link IWearNotificationSender.Factory} to create a NotificationSender,
-     * which will send the generated notification to the wearable device.
+     * The message is only handed to the {@link IngestPipeline}, which decodes it, drops redelivered messages,
+     * sends the notification to the wearable device and archives it, on its own threads.
+     * This returns right away, releasing the GCM wake lock.
      *
      * @param context {@link Context} Application context
      * @param intent  {@link Intent} received with the push notification
      */
     @Override
     protected void onMessage(final Context context, final Intent intent) {
-        final String message = intent.getStringExtra("payload").replaceAll("[\r\n]+$", "");
-        Log.v(LOG_TAG, "Received a notification: " + message);
-
-        if (!TimePreference.isNowQuietTime()) {
-            Log.v(LOG_TAG, "Not inside quiet time, so let's send a new notification");
-            try {
-                IWearNotificationSender.Factory.getsInstance().createNotificationSender(IWearNotificationType.ANDROID, App.getContext(), message).sendNotification(App.getContext());
-            } catch (IntuitWearException e) {
-                Log.e(LOG_TAG, e.toString());
-            }
-        }
-        Archive.getInstance().addItem(message);
+        IngestPipeline.getInstance().receive(intent.getStringExtra("payload"));
     }
 
     /**
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The <code>GatewayOutbox</code> keeps the push gateway operations, which have not been acknowledged yet,
+ * in a file, so that a sync interrupted by the process getting killed, or by a lost connection, picks up
+ * where it stopped, instead of starting over.
+ * <p/>
+ * There is at most one operation per group, subscribe or unsubscribe. A newer operation replaces an older one,
+ * and an operation, which brings a group back to the state the gateway acknowledged, cancels the pending one,
+ * so a subscribe followed by an unsubscribe sends nothing. A pending registration is kept with the operations,
+ * for a full sync, when the gateway's state for this user and device is not known. Operations the gateway
+ * acknowledges while the registration is pending are kept too, so that a retry only sends what is still outstanding.
+ * <p/>
+ * The file is replaced, using a rename, whenever the operations change.
+ */
+class GatewayOutbox {
+    private static final String LOG_TAG = GatewayOutbox.class.getName();
+    private static final String FILE = "outbox";
+    private static GatewayOutbox outbox;
+
+    private final File mFile;
+    private final Map<String, Boolean> mOps = new LinkedHashMap<>(); // group -> subscribe, oldest first
+    private final Map<String, Boolean> mRegistered = new LinkedHashMap<>(); // acknowledged, while the registration is pending
+    private boolean mRegister;
+
+    /**
+     * @return {@link GatewayOutbox}, with the operations left from a previous run.
+     */
+    static synchronized GatewayOutbox getInstance() {
+        if (outbox == null) {
+            outbox = new GatewayOutbox(new File(App.getContext().getFilesDir(), FILE));
+        }
+        return outbox;
+    }
+
+    /**
+     * @param file {@link File} the pending operations are kept in
+     */
+    GatewayOutbox(final File file) {
+        mFile = file;
+        load();
+    }
+
+    /**
+     * Queues subscribing to, or unsubscribing from a group, replacing a pending operation on the same group.
+     *
+     * @param group     {@link String} PNG group
+     * @param subscribe {@link boolean} true to subscribe, false to unsubscribe
+     */
+    synchronized void put(final String group, final boolean subscribe) {
+        final Boolean previous = mOps.put(group, subscribe);
+        if (previous == null || previous != subscribe) {
+            save();
+        }
+    }
+
+    /**
+     * Cancels the pending operation on a group, if any, e.g. once the group is back at its acknowledged state.
+     *
+     * @param group {@link String} PNG group
+     */
+    synchronized void cancel(final String group) {
+        if (mOps.remove(group) != null) {
+            save();
+        }
+    }
+
+    /**
+     * Starts or ends a registration, either way, the operations acknowledged for the previous one are dropped.
+     *
+     * @param register {@link boolean} true if the user needs to be registered with the selected groups as a whole
+     */
+    synchronized void setRegister(final boolean register) {
+        if (mRegister != register) {
+            mRegister = register;
+            mRegistered.clear();
+            save();
+        }
+    }
+
+    /**
+     * @return {@link boolean} true if a full registration is pending
+     */
+    synchronized boolean isRegister() {
+        return mRegister;
+    }
+
+    /**
+     * @return {@link Map} copy of the pending operations, group -> subscribe, oldest first
+     */
+    synchronized Map<String, Boolean> getOps() {
+        return new LinkedHashMap<>(mOps);
+    }
+
+    /**
+     * @return {@link Map} copy of the operations acknowledged while the registration is pending, group -> subscribe,
+     * empty if no registration is pending
+     */
+    synchronized Map<String, Boolean> getRegistered() {
+        return new LinkedHashMap<>(mRegistered);
+    }
+
+    /**
+     * @return {@link boolean} true if nothing is pending
+     */
+    synchronized boolean isEmpty() {
+        return mOps.isEmpty() && !mRegister;
+    }
+
+    /**
+     * Removes operations, the gateway has acknowledged, unless they have been replaced in the meantime.
+     * While a registration is pending, they are kept as part of it.
+     *
+     * @param acked {@link Map} acknowledged operations, group -> subscribe
+     */
+    synchronized void acknowledge(final Map<String, Boolean> acked) {
+        boolean changed = false;
+        for (final Map.Entry<String, Boolean> op : acked.entrySet()) {
+            if (op.getValue().equals(mOps.get(op.getKey()))) {
+                mOps.remove(op.getKey());
+                if (mRegister) {
+                    mRegistered.put(op.getKey(), op.getValue());
+                }
+                changed = true;
+            }
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    private void save() {
+        final File tmp = new File(mFile.getPath() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeBoolean(mRegister);
+                out.writeInt(mOps.size());
+                for (final Map.Entry<String, Boolean> op : mOps.entrySet()) {
+                    out.writeUTF(op.getKey());
+                    out.writeBoolean(op.getValue());
+                }
+                out.writeInt(mRegistered.size());
+                for (final Map.Entry<String, Boolean> op : mRegistered.entrySet()) {
+                    out.writeUTF(op.getKey());
+                    out.writeBoolean(op.getValue());
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(mFile)) {
+                Log.e(LOG_TAG, "Could not rename " + tmp);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, e.toString());
+        }
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                mRegister = in.readBoolean();
+                final int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    final String group = in.readUTF();
+                    mOps.put(group, in.readBoolean());
+                }
+                final int m = in.readInt();
+                for (int i = 0; i < m; i++) {
+                    final String group = in.readUTF();
+                    mRegistered.put(group, in.readBoolean());
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, e.toString());
+        }
+    }
+}
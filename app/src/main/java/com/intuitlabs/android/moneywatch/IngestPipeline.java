@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.Context;
+import android.os.PowerManager;
+import android.util.Log;
+
+import com.intuit.intuitwear.exceptions.IntuitWearException;
+import com.intuit.intuitwear.notifications.IWearNotificationContent;
+import com.intuit.intuitwear.notifications.IWearNotificationSender;
+import com.intuit.intuitwear.notifications.IWearNotificationType;
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>IngestPipeline</code> handles received push messages in stages:
+ * <ol>
+ * <li>receive, on the caller's thread, only queues the message,</li>
+ * <li>decode, filter and notify, on the pipeline's handler thread, trim and decode the message,
+ * drop redelivered messages, and send a notification, unless it is quiet time, the message's feed is over its rate,
+ * or the message is part of a burst,</li>
+ * <li>persist, on the archive's writer thread, adds the message to the {@link Archive}
+ * and holds messages received during quiet time in the {@link QuietTimeQueue}.</li>
+ * </ol>
+ * The archive's writer thread owns persistence, it also writes the group commits, compacts and clears the archive,
+ * in between persisting messages, in the order they were handled.
+ * Once the handler's queue is full, the receiver is blocked for up to {@link #OFFER_TIMEOUT_MS}, after that
+ * the message is dropped and counted. Once as many messages wait for the writer, as the queue holds,
+ * the handler is blocked, until the writer catches up.
+ * <p/>
+ * A partial wake lock is held for every message, from the moment it is queued until it leaves the pipeline.
+ * Counts and latencies of every stage are kept in the {@link Metrics}.
+ */
+class IngestPipeline {
+    private static final String LOG_TAG = IngestPipeline.class.getSimpleName();
+    private static final long OFFER_TIMEOUT_MS = 2000;
+    private static final Metrics.Counter received = Metrics.counter("ingest.received");
+    private static final Metrics.Counter dropped = Metrics.counter("ingest.dropped.full");
+    private static final Metrics.Counter duplicates = Metrics.counter("ingest.dropped.duplicate");
+    private static final Metrics.Counter quiet = Metrics.counter("ingest.held.quiet");
+    private static final Metrics.Counter throttled = Metrics.counter("ingest.throttled");
+    private static final Metrics.Counter coalesced = Metrics.counter("ingest.coalesced");
+    private static final Metrics.Counter sent = Metrics.counter("ingest.sent");
+    private static final Metrics.Counter failed = Metrics.counter("ingest.failed");
+    private static final Metrics.Counter persisted = Metrics.counter("ingest.persisted");
+    private static final Metrics.Histogram total = Metrics.histogram("ingest.total");
+    private static final Metrics.Histogram quietCheck = Metrics.histogram("ingest.quiet_check");
+    private static final Metrics.Histogram send = Metrics.histogram("ingest.send");
+    private static final Metrics.Histogram persist = Metrics.histogram("archive.persist");
+    private static IngestPipeline pipeline;
+
+    private final BlockingQueue<Message> mInbox;
+    private final Semaphore mOutbox; // a permit for every message the writer may have pending
+    private final int mCapacity;
+    private final PowerManager.WakeLock mWakeLock;
+
+    /**
+     * A message, while it passes the pipeline.
+     */
+    private static final class Message {
+        final long receivedNs = System.nanoTime();
+        String payload;
+        ArchiveEntry entry;
+        IWearNotificationContent content;
+        boolean quiet;
+
+        Message(final String payload) {
+            this.payload = payload;
+        }
+    }
+
+    /**
+     * @return {@link IngestPipeline}, with the queue capacity defined in the app's resources.
+     */
+    static synchronized IngestPipeline getInstance() {
+        if (pipeline == null) {
+            pipeline = new IngestPipeline(App.getContext(), App.getContext().getResources().getInteger(R.integer.ingest_queue_capacity));
+        }
+        return pipeline;
+    }
+
+    /**
+     * @param context  {@link Context} to acquire the wake lock
+     * @param capacity {@link int} number of messages each stage can queue
+     */
+    IngestPipeline(final Context context, final int capacity) {
+        mInbox = new ArrayBlockingQueue<>(capacity);
+        mOutbox = new Semaphore(capacity);
+        mCapacity = capacity;
+        mWakeLock = ((PowerManager) context.getSystemService(Context.POWER_SERVICE)).newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, LOG_TAG);
+        mWakeLock.setReferenceCounted(true);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                handle();
+            }
+        }, "ingest-handler").start();
+    }
+
+    /**
+     * The receive stage, queues a message and returns, once it is queued.
+     *
+     * @param payload {@link String} original JSON payload, as received
+     * @return {@link boolean} false if the message was dropped
+     */
+    boolean receive(final String payload) {
+        if (payload == null) {
+            Log.w(LOG_TAG, "Dropped a message without payload");
+            return false;
+        }
+        mWakeLock.acquire();
+        try {
+            if (mInbox.offer(new Message(payload), OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                received.inc();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mWakeLock.release();
+        dropped.inc();
+        Log.w(LOG_TAG, "Dropped a message, the pipeline is full, " + dropped.get() + " so far");
+        return false;
+    }
+
+    /**
+     * Runs the decode, filter and notify stages, on the handler thread.
+     */
+    private void handle() {
+        try {
+            while (true) {
+                final Message message = mInbox.take();
+                boolean remembered = false;
+                boolean handedOff = false;
+                try {
+                    decode(message);
+                    if (filter(message)) {
+                        remembered = true;
+                        notify(message);
+                        mOutbox.acquire();
+                        Archive.getInstance().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                write(message);
+                            }
+                        });
+                        handedOff = true;
+                    }
+                } catch (RuntimeException | Error e) { // e.g. out of memory for a huge payload, the stage keeps running
+                    failed.inc();
+                    Log.e(LOG_TAG, "Failed to handle a message", e);
+                } finally {
+                    if (!handedOff) {
+                        if (remembered) {
+                            DuplicateFilter.getInstance().forget(message.payload); // so its redelivery is not dropped
+                        }
+                        total.since(message.receivedNs);
+                        mWakeLock.release();
+                    }
+                }
+                if (mInbox.isEmpty()) {
+                    DuplicateFilter.getInstance().save();
+                }
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Handler thread interrupted");
+        }
+    }
+
+    /**
+     * Runs the persist stage for a message, on the archive's writer thread, in the order the messages were handled.
+     * Once no more messages are pending, the staged ones are written in one group commit.
+     */
+    private void write(final Message message) {
+        boolean archived = false;
+        try {
+            final long start = System.nanoTime();
+            final long seq = Archive.getInstance().addItem(message.payload, message.entry);
+            archived = true;
+            persist.since(start);
+            persisted.inc();
+            if (message.quiet) {
+                QuietTimeQueue.getInstance().hold(seq);
+            }
+        } catch (RuntimeException | Error e) { // e.g. out of memory for a huge payload, the writer keeps running
+            failed.inc();
+            Log.e(LOG_TAG, "Failed to handle a message", e);
+            if (!archived) {
+                DuplicateFilter.getInstance().forget(message.payload); // so its redelivery is not dropped
+            }
+        } finally {
+            total.since(message.receivedNs);
+            mOutbox.release();
+            mWakeLock.release();
+        }
+        if (mOutbox.availablePermits() == mCapacity && mInbox.isEmpty()) {
+            Archive.getInstance().requestFlush();
+        }
+    }
+
+    /**
+     * Removes trailing line breaks and decodes the payload once, for the notification and the archive.
+     */
+    private static void decode(final Message message) {
+        final String payload = message.payload;
+        int end = payload.length();
+        while (0 < end && (payload.charAt(end - 1) == '\r' || payload.charAt(end - 1) == '\n')) {
+            end--;
+        }
+        message.payload = payload.substring(0, end);
+        if (Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+            Log.v(LOG_TAG, "Received a notification: " + message.payload);
+        }
+        final PayloadDecoder.Decoded decoded = PayloadDecoder.getInstance().decode(message.payload);
+        message.entry = decoded.entry;
+        message.content = decoded.content;
+    }
+
+    /**
+     * Marks messages received during quiet time, to only get archived.
+     *
+     * @return {@link boolean} false if the message has been received before and should be dropped.
+     */
+    private static boolean filter(final Message message) {
+        if (DuplicateFilter.getInstance().isDuplicate(message.payload)) {
+            duplicates.inc();
+            Log.i(LOG_TAG, "Dropped a redelivered notification, " + duplicates.get() + " so far");
+            return false;
+        }
+        final long start = System.nanoTime();
+        message.quiet = TimePreference.isNowQuietTime();
+        quietCheck.since(start);
+        return true;
+    }
+
+    /**
+     * Sends the notification to the wearable device, unless it is quiet time, the message's feed is over its rate,
+     * as enforced by the {@link RateLimiter}, or the message is part of a burst.
+     * Messages received during quiet time are held by the {@link QuietTimeQueue}, once archived.
+     * Messages the {@link PayloadDecoder} could not decode are handed to the IntuitWear SDK as is.
+     */
+    private static void notify(final Message message) {
+        if (message.quiet) {
+            quiet.inc();
+            Log.v(LOG_TAG, "Inside quiet time, the notification is held until quiet time is over");
+            return;
+        }
+        QuietTimeQueue.getInstance().deliver(); // in case the alarm was missed, e.g. after a reboot
+        if (!RateLimiter.getInstance().tryAcquire(message.entry.feed)) {
+            throttled.inc();
+            Log.v(LOG_TAG, "Over the feed's rate, the notification only gets archived");
+        } else if (NotificationCoalescer.getInstance().offer(message.entry)) {
+            coalesced.inc();
+            Log.v(LOG_TAG, "Part of a burst, the notification will be merged into the digest");
+        } else {
+            final long start = System.nanoTime();
+            try {
+                final IWearNotificationSender.Factory factory = IWearNotificationSender.Factory.getsInstance();
+                final IWearNotificationSender sender = message.content != null ?
+                        factory.createNotificationSender(IWearNotificationType.ANDROID, App.getContext(), message.content) :
+                        factory.createNotificationSender(IWearNotificationType.ANDROID, App.getContext(), message.payload);
+                sender.sendNotification(App.getContext());
+                sent.inc();
+            } catch (IntuitWearException e) {
+                failed.inc();
+                Log.e(LOG_TAG, e.toString());
+            }
+            send.since(start);
+        }
+    }
+}
@@ -23,24 +23,24 @@ package com.intuitlabs.android.moneywatch;
 
 import android.app.Activity;
 import android.app.Fragment;
-import android.content.Context;
+import android.app.LoaderManager;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.Loader;
 import android.net.Uri;
 import android.os.Bundle;
-import android.preference.PreferenceManager;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.AdapterView;
 import android.widget.ListView;
-import android.widget.TextView;
 
-import com.google.gson.Gson;
-import com.intuit.intuitwear.notifications.IWearNotificationContent;
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 
 /**
  * The Main activity of this app is switching between the Settings and Placeholder fragment.
@@ -54,31 +54,43 @@ public class MainActivity extends Activity {
 
     /**
      * Setting up the main ui, i.e. loading an image into the PlaceholderFragment.
-     * Registering the app the PushNotificationGateway, using the {@link GCMIntentService#register}
+     * Registering the app with the PushNotificationGateway and syncing is left to {@link Startup},
+     * after the first frame has been drawn.
      *
      * @param savedInstanceState {@link Bundle}
      */
     @Override
     protected void onCreate(final Bundle savedInstanceState) {
+        final long start = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
         if (getActionBar() != null) {
             getActionBar().setDisplayShowHomeEnabled(true);
         }
         if (savedInstanceState == null) {
-            GCMIntentService.register(App.getId());
             if (findViewById(R.id.container) != null) {
                 getFragmentManager()
                         .beginTransaction()
                         .replace(R.id.container, new NotificationArchiveFragment())
                         .commit();
             }
-            // todo refactor this to a better place
-            SettingsFragment.syncIfNeeded(App.getContext());
+            Startup.onActivityCreated(this, start);
         }
     }
 
 
+    /**
+     * Writes the app's {@link Metrics} after the activity's state,
+     * e.g. for <code>adb shell dumpsys activity com.intuitlabs.android.moneywatch</code>.
+     *
+     * @inheritDoc
+     */
+    @Override
+    public void dump(final String prefix, final FileDescriptor fd, final PrintWriter writer, final String[] args) {
+        super.dump(prefix, fd, writer, args);
+        Metrics.dump(writer);
+    }
+
     /**
      * @inheritDoc
      */
@@ -128,10 +140,15 @@ public class MainActivity extends Activity {
 
     /**
      * A fragment containing a simple list view of archived notifications.
+     * The archive is opened by the {@link ArchiveLoader} in the background, and the {@link ArchiveAdapter}
+     * reads it one page at a time, while the user scrolls down the list.
      */
-    public static class NotificationArchiveFragment extends Fragment implements SharedPreferences.OnSharedPreferenceChangeListener {
+    public static class NotificationArchiveFragment extends Fragment implements Archive.OnArchiveChangeListener,
+            AdapterView.OnItemClickListener, LoaderManager.LoaderCallbacks<ArchiveLoader.Snapshot> {
+        private static final int LOADER_ID = 0;
 
         private ListView mListView;
+        private ArchiveAdapter mAdapter;
 
         /**
          * @inheritDoc
@@ -143,17 +160,39 @@ public class MainActivity extends Activity {
             // Inflate the layout for this fragment
             final View rootView = inflater.inflate(R.layout.fragment_main, container, false);
             mListView = (ListView) rootView.findViewById(R.id.listView);
+            mListView.setOnItemClickListener(this);
+            rootView.findViewById(R.id.imageView).setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(final View v) {
+                    // the hidden diagnostics screen
+                    getFragmentManager()
+                            .beginTransaction()
+                            .add(R.id.container, new DiagnosticsFragment())
+                            .addToBackStack(null)
+                            .commit();
+                    return true;
+                }
+            });
+            mAdapter = null;
             return rootView;
         }
 
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public void onActivityCreated(final Bundle savedInstanceState) {
+            super.onActivityCreated(savedInstanceState);
+            getLoaderManager().initLoader(LOADER_ID, null, this);
+        }
+
         /**
          * @inheritDoc
          */
         @Override
         public void onResume() {
             super.onResume();
-            mListView.setAdapter(new LstAdapter<>(App.getContext(), R.layout.list_item, Archive.getInstance().getItems()));
-            PreferenceManager.getDefaultSharedPreferences(App.getContext()).registerOnSharedPreferenceChangeListener(this);
+            Archive.getInstance().registerOnArchiveChangeListener(this);
         }
 
         /**
@@ -161,51 +200,127 @@ public class MainActivity extends Activity {
          */
         @Override
         public void onPause() {
-            PreferenceManager.getDefaultSharedPreferences(App.getContext()).unregisterOnSharedPreferenceChangeListener(this);
+            Archive.getInstance().unregisterOnArchiveChangeListener(this);
             super.onPause();
         }
 
-        public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
-            if (key.equals(getString(R.string.preference_key_archive))) {
-                mListView.setAdapter(new LstAdapter<>(App.getContext(), R.layout.list_item, Archive.getInstance().getItems()));
+        //
+        // Implement LoaderManager.LoaderCallbacks
+        //
+
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public Loader<ArchiveLoader.Snapshot> onCreateLoader(final int id, final Bundle args) {
+            return new ArchiveLoader(getActivity());
+        }
+
+        /**
+         * Shows the first snapshot, later snapshots are applied to the shown list.
+         */
+        @Override
+        public void onLoadFinished(final Loader<ArchiveLoader.Snapshot> loader, final ArchiveLoader.Snapshot snapshot) {
+            if (mAdapter == null) {
+                mAdapter = new ArchiveAdapter(getActivity(), snapshot);
+                mListView.setAdapter(mAdapter);
+            } else {
+                mAdapter.swap(snapshot);
             }
         }
 
-        class LstAdapter<T> extends ArrayAdapter<T> {
-            /**
-             * @inheritDoc
-             */
-            LstAdapter(Context context, int resource, T[] objects) {
-                super(context, resource, objects);
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public void onLoaderReset(final Loader<ArchiveLoader.Snapshot> loader) {
+        }
+
+        /**
+         * Opens the link of the clicked entry, one listener is shared by all rows.
+         */
+        @Override
+        public void onItemClick(final AdapterView<?> parent, final View view, final int position, final long id) {
+            final ArchiveEntry entry = mAdapter.getItem(position);
+            if (entry != null) {
+                try {
+                    startActivity(new Intent(Intent.ACTION_VIEW).setData(Uri.parse(entry.link)));
+                } catch (Exception e) {
+                    Log.i(LOG_TAG, e.toString());
+                }
             }
+        }
+
+        //
+        // Implement Archive.OnArchiveChangeListener,
+        // the archive changes on its writer thread.
+        //
+
+        /**
+         * Adds the new entry on top of the list, unless the list was loaded after the entry got added.
+         * A list that has been scrolled keeps showing the same rows at the same offset.
+         */
+        @Override
+        public void onEntryInserted(final ArchiveEntry entry) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    final int position = mListView.getFirstVisiblePosition();
+                    final View first = mListView.getChildAt(0);
+                    final int top = first != null ? first.getTop() - mListView.getPaddingTop() : 0;
+                    if (mAdapter.insert(entry) && (0 < position || top < 0)) {
+                        mListView.setSelectionFromTop(position + 1, top);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Removes evicted entries from the bottom of the list.
+         */
+        @Override
+        public void onEntriesEvicted(final long seq) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mAdapter.evict(seq);
+                }
+            });
+        }
 
-            /**
-             * @inheritDoc
-             */
-            @Override
-            public View getView(final int position, final View convertView, final ViewGroup parent) {
-                final LayoutInflater inflater = (LayoutInflater) getActivity().getSystemService(Context.LAYOUT_INFLATER_SERVICE);
-                final View rowView = inflater.inflate(R.layout.list_item, parent, false);
-                final TextView titleView = (TextView) rowView.findViewById(R.id.title);
-                final TextView textView = (TextView) rowView.findViewById(R.id.text);
-                final String json = String.valueOf(getItem(position));
-                final IWearNotificationContent content = new Gson().fromJson(json, IWearNotificationContent.class);
-                if (content != null) {
-                    titleView.setText(content.getBigTextStyle().getBigContentTitle());
-                    textView.setText(content.getBigTextStyle().getBigText());
-                    rowView.setOnClickListener(new View.OnClickListener() {
-                        @Override
-                        public void onClick(final View v) {
-                            try {
-                                final Uri uri = Uri.parse(content.getActions().get(0).getExtras()[0]);
-                                startActivity(new Intent(Intent.ACTION_VIEW).setData(uri));
-                            } catch (Exception e) {
-                                Log.i(LOG_TAG, e.toString());
+        /**
+         * @inheritDoc
+         */
+        @Override
+        public void onArchiveCleared() {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    mAdapter.clear();
+                }
+            });
+        }
+
+        /**
+         * Runs the given action on the UI thread, as long as this fragment is resumed.
+         * Changes that arrive before the archive has been loaded are picked up by reloading it.
+         */
+        private void runOnUiThread(final Runnable action) {
+            final Activity activity = getActivity();
+            if (activity != null) {
+                activity.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isResumed() && mAdapter != null) {
+                            action.run();
+                        } else if (isResumed()) {
+                            final Loader<ArchiveLoader.Snapshot> loader = getLoaderManager().getLoader(LOADER_ID);
+                            if (loader != null) {
+                                loader.onContentChanged();
                             }
                         }
-                    });
-                }
-                return rowView;
+                    }
+                });
             }
         }
     }
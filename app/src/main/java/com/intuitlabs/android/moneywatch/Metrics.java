@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * <code>Metrics</code> is a registry of named counters, gauges and latency histograms. Updating a metric never locks,
+ * so metrics can be kept on the hot path of every message. Metrics are registered once, usually as static fields,
+ * and are shown on the {@link DiagnosticsFragment}, which opens on a long click on the image above the archive list.
+ * They are also dumped by the {@link MainActivity}, e.g. through <code>adb shell dumpsys activity com.intuitlabs.android.moneywatch</code>.
+ */
+final class Metrics {
+    private static final Map<String, Counter> counters = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> histograms = new ConcurrentSkipListMap<>();
+    private static final Map<String, Gauge> gauges = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * A counter, which only goes up.
+     */
+    static final class Counter {
+        private final AtomicLong mCount = new AtomicLong();
+
+        void inc() {
+            mCount.incrementAndGet();
+        }
+
+        long get() {
+            return mCount.get();
+        }
+    }
+
+    /**
+     * A value, read from a component when the metrics are dumped.
+     */
+    interface Gauge {
+        long get();
+    }
+
+    /**
+     * A latency histogram, with fixed buckets from 10 microseconds to 5 seconds.
+     */
+    static final class Histogram {
+        private static final long[] BOUNDS_US = {10, 50, 100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000, 5000000};
+
+        private final AtomicLongArray mBuckets = new AtomicLongArray(BOUNDS_US.length + 1); // the last one is unbounded
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSumUs = new AtomicLong();
+
+        /**
+         * Records the time elapsed since the given start.
+         *
+         * @param startNs {@link long} as returned by {@link System#nanoTime()}
+         */
+        void since(final long startNs) {
+            record((System.nanoTime() - startNs) / 1000);
+        }
+
+        /**
+         * @param us {@link long} latency in microseconds
+         */
+        void record(final long us) {
+            int i = 0;
+            while (i < BOUNDS_US.length && BOUNDS_US[i] < us) {
+                i++;
+            }
+            mBuckets.incrementAndGet(i);
+            mCount.incrementAndGet();
+            mSumUs.addAndGet(us);
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * @param q {@link double} quantile, between 0 and 1
+         * @return {@link long} upper bound, in microseconds, of the bucket holding the quantile, or -1 if unbounded.
+         */
+        long quantile(final double q) {
+            final long rank = (long) Math.ceil(q * mCount.get());
+            long seen = 0;
+            for (int i = 0; i < BOUNDS_US.length; i++) {
+                seen += mBuckets.get(i);
+                if (rank <= seen) {
+                    return BOUNDS_US[i];
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public String toString() {
+            final long count = mCount.get();
+            return String.format("count=%d mean=%dus p50<=%s p90<=%s p99<=%s", count, 0 < count ? mSumUs.get() / count : 0,
+                    format(quantile(0.5)), format(quantile(0.9)), format(quantile(0.99)));
+        }
+
+        private static String format(final long us) {
+            return us < 0 ? "inf" : us < 1000 ? us + "us" : us / 1000 + "ms";
+        }
+    }
+
+    /**
+     * @param name {@link String} unique name
+     * @return {@link Counter} registered with the given name, created on first use.
+     */
+    static Counter counter(final String name) {
+        synchronized (counters) {
+            Counter counter = counters.get(name);
+            if (counter == null) {
+                counter = new Counter();
+                counters.put(name, counter);
+            }
+            return counter;
+        }
+    }
+
+    /**
+     * @param name {@link String} unique name
+     * @return {@link Histogram} registered with the given name, created on first use.
+     */
+    static Histogram histogram(final String name) {
+        synchronized (histograms) {
+            Histogram histogram = histograms.get(name);
+            if (histogram == null) {
+                histogram = new Histogram();
+                histograms.put(name, histogram);
+            }
+            return histogram;
+        }
+    }
+
+    /**
+     * Registers a gauge, replacing one registered with the same name.
+     *
+     * @param name  {@link String} unique name
+     * @param gauge {@link Gauge}
+     */
+    static void gauge(final String name, final Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Writes all metrics, ordered by name.
+     *
+     * @param writer {@link PrintWriter}
+     */
+    static void dump(final PrintWriter writer) {
+        writer.println("Counters:");
+        for (final Map.Entry<String, Counter> e : counters.entrySet()) {
+            writer.println("  " + e.getKey() + ": " + e.getValue().get());
+        }
+        for (final Map.Entry<String, Gauge> e : gauges.entrySet()) {
+            writer.println("  " + e.getKey() + ": " + e.getValue().get());
+        }
+        writer.println("Latencies:");
+        for (final Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            writer.println("  " + e.getKey() + ": " + e.getValue());
+        }
+        writer.flush();
+    }
+}
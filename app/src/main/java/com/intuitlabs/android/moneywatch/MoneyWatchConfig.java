@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.AsyncTask;
+import android.preference.PreferenceManager;
+
+import com.intuitlabs.android.moneywatch.core.QuietSchedule;
+import com.intuitlabs.android.moneywatch.core.QuietTime;
+import com.intuitlabs.android.moneywatch.core.RetentionPolicy;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * <code>MoneyWatchConfig</code> is an immutable, typed snapshot of the settings, so reading a setting
+ * on a hot path, like for every received message, is a field read, instead of a preference lookup.
+ * <p/>
+ * The snapshot in use is published through a volatile reference and rebuilt, only when a preference changes.
+ * The quiet time is only compiled again, when a quiet time setting or the time zone changed, which also lets the
+ * {@link QuietTimeQueue} deliver held messages, or reschedule its alarm. A changed retention setting lets the
+ * {@link Archive} compact, once the new snapshot is published, so compaction applies the new {@link RetentionPolicy}.
+ * Since preference changes are reported on the main thread, a thread that commits a preference and reads it
+ * right after, calls {@link #reload()}, so the snapshot does not lag its own change.
+ */
+final class MoneyWatchConfig {
+    private static volatile MoneyWatchConfig config;
+    @SuppressWarnings("FieldCanBeLocal")
+    private static SharedPreferences.OnSharedPreferenceChangeListener listener; // preferences only keep weak references
+
+    /**
+     * Maximum number of archived entries.
+     */
+    final int archiveSize;
+    final RetentionPolicy retention;
+    final boolean searchIndex;
+    final QuietSchedule quiet;
+    /**
+     * Selected information sources, i.e. PNG groups, not modifiable.
+     */
+    final Set<String> feeds;
+    /**
+     * How the gateway refers to this user, empty until resolved.
+     */
+    final String userId;
+    /**
+     * True if the last sync of the information source selection with the gateway succeeded.
+     */
+    final boolean inSync;
+
+    private MoneyWatchConfig(final Context context, final SharedPreferences sp, final QuietSchedule quiet) {
+        this.retention = RetentionPolicy.fromSettings(
+                sp.getInt(context.getString(R.string.preference_key_size), 12),
+                sp.getString(context.getString(R.string.preference_key_age), "0"),
+                sp.getString(context.getString(R.string.preference_key_bytes), "0"));
+        this.archiveSize = retention.maxEntries;
+        this.searchIndex = sp.getBoolean(context.getString(R.string.preference_key_index), true);
+        this.quiet = quiet;
+        final Set<String> defaultFeeds = new HashSet<>(Arrays.asList(context.getResources().getStringArray(R.array.feed_defaults)));
+        this.feeds = Collections.unmodifiableSet(new HashSet<>(sp.getStringSet(context.getString(R.string.preference_key_sources), defaultFeeds)));
+        this.userId = sp.getString(context.getString(R.string.preference_key_userid), "");
+        this.inSync = sp.getBoolean(context.getString(R.string.preference_key_sync), false);
+    }
+
+    /**
+     * @return {@link MoneyWatchConfig} current snapshot of the settings
+     */
+    static MoneyWatchConfig get() {
+        MoneyWatchConfig c = config;
+        if (c == null) {
+            synchronized (MoneyWatchConfig.class) {
+                if (config == null) {
+                    final Context context = App.getContext();
+                    final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(context);
+                    listener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                        @Override
+                        public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key) {
+                            final boolean quietChanged = isQuietKey(context, key);
+                            rebuild(context, sharedPreferences, quietChanged);
+                            if (isRetentionKey(context, key)) {
+                                Archive.getInstance().compact(); // shrinks the archive in the background, if needed
+                            }
+                            if (quietChanged) {
+                                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        QuietTimeQueue.getInstance().deliver(); // delivers held messages, or reschedules the alarm
+                                    }
+                                });
+                            }
+                        }
+                    };
+                    config = new MoneyWatchConfig(context, sp, quiet(context, sp));
+                    sp.registerOnSharedPreferenceChangeListener(listener);
+                }
+                c = config;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Compiles the quiet time again, in the new default time zone, once the time zone has changed.
+     */
+    static synchronized void timeZoneChanged() {
+        if (config != null) {
+            rebuild(App.getContext(), PreferenceManager.getDefaultSharedPreferences(App.getContext()), true);
+        }
+    }
+
+    /**
+     * Rebuilds the snapshot on the calling thread, after it committed a preference,
+     * instead of waiting for the change to be reported on the main thread.
+     */
+    static synchronized void reload() {
+        if (config != null) {
+            rebuild(App.getContext(), PreferenceManager.getDefaultSharedPreferences(App.getContext()), false);
+        }
+    }
+
+    /**
+     * Reads the preferences and publishes the new snapshot under the class lock,
+     * so a snapshot read before a concurrent commit never replaces one read after it.
+     *
+     * @param quietChanged {@link boolean} true to compile the quiet time again
+     */
+    private static synchronized void rebuild(final Context context, final SharedPreferences sp, final boolean quietChanged) {
+        config = new MoneyWatchConfig(context, sp, quietChanged ? quiet(context, sp) : config.quiet);
+    }
+
+    /**
+     * Compiles the quiet period, defined in the settings, on the selected weekdays.
+     *
+     * @param context {@link Context}
+     * @param sp      {@link SharedPreferences}
+     * @return {@link QuietSchedule}
+     */
+    private static QuietSchedule quiet(final Context context, final SharedPreferences sp) {
+        return QuietSchedule.fromSettings(
+                sp.getBoolean(context.getString(R.string.preference_key_ts), false),
+                sp.getString(context.getString(R.string.preference_key_t0), QuietTime.DEFAULT_TIME),
+                sp.getString(context.getString(R.string.preference_key_t1), QuietTime.DEFAULT_TIME),
+                sp.getStringSet(context.getString(R.string.preference_key_days), null),
+                TimeZone.getDefault());
+    }
+
+    private static boolean isRetentionKey(final Context context, final String key) {
+        return context.getString(R.string.preference_key_size).equals(key)
+                || context.getString(R.string.preference_key_age).equals(key)
+                || context.getString(R.string.preference_key_bytes).equals(key);
+    }
+
+    private static boolean isQuietKey(final Context context, final String key) {
+        return context.getString(R.string.preference_key_ts).equals(key) // key is null, once the preferences got cleared
+                || context.getString(R.string.preference_key_t0).equals(key)
+                || context.getString(R.string.preference_key_t1).equals(key)
+                || context.getString(R.string.preference_key_days).equals(key);
+    }
+}
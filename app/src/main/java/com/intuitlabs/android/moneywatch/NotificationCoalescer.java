@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.util.Log;
+
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * During market moves, messages arrive in bursts. Every sent notification costs a transfer to the wearable
+ * and a vibration. The <code>NotificationCoalescer</code> lets the first message of a burst through, and holds
+ * the messages that arrive within the window after it. When the window closes, the held messages are merged
+ * into a single InboxStyle digest, which is updated in place, and a new window opens. Once a window closes
+ * without any held messages, the burst is over. A digest posted during quiet time is posted without sound and vibration.
+ */
+class NotificationCoalescer {
+    private static final String LOG_TAG = NotificationCoalescer.class.getName();
+    private static final int DIGEST_ID = 0x4d57; // fixed, so that the digest is updated in place
+    private static NotificationCoalescer coalescer;
+
+    private final long mWindowMs;
+    private final ScheduledExecutorService mTimer = Executors.newSingleThreadScheduledExecutor();
+    private final Runnable mCloseWindowTask = new Runnable() {
+        @Override
+        public void run() {
+            closeWindow();
+        }
+    };
+    private final List<String> mLines = new ArrayList<>(DigestNotification.LINES); // newest digest lines of the current burst, oldest first
+    private int mBurst; // messages held in the current burst
+    private boolean mWindowOpen;
+    private int mHeld; // messages held in the current window
+    private long mReceived;
+    private long mSent;
+    private long mDigests;
+
+    /**
+     * @return {@link NotificationCoalescer}, with the window defined in the app's resources.
+     */
+    static synchronized NotificationCoalescer getInstance() {
+        if (coalescer == null) {
+            coalescer = new NotificationCoalescer(
+                    App.getContext().getResources().getInteger(R.integer.coalesce_window_seconds) * 1000L);
+            Metrics.gauge("coalescer.saved_sends", new Metrics.Gauge() {
+                @Override
+                public long get() {
+                    return coalescer.getSavedSendCount();
+                }
+            });
+        }
+        return coalescer;
+    }
+
+    /**
+     * @param windowMs {@link long} time, in milliseconds, messages are held after a send, 0 disables coalescing
+     */
+    NotificationCoalescer(final long windowMs) {
+        mWindowMs = windowMs;
+    }
+
+    /**
+     * Offers a message for sending.
+     *
+     * @param entry {@link ArchiveEntry} decoded message
+     * @return {@link boolean} true if the message has been held for the digest,
+     * false if the caller should send it right away.
+     */
+    synchronized boolean offer(final ArchiveEntry entry) {
+        mReceived++;
+        if (!mWindowOpen) {
+            mSent++;
+            if (0 < mWindowMs) {
+                mWindowOpen = true;
+                mTimer.schedule(mCloseWindowTask, mWindowMs, TimeUnit.MILLISECONDS);
+            }
+            return false;
+        }
+        if (mLines.size() == DigestNotification.LINES) {
+            mLines.remove(0); // the digest only shows the newest lines
+        }
+        mLines.add(DigestNotification.line(entry));
+        mHeld++;
+        mBurst++;
+        return true;
+    }
+
+    /**
+     * @return {@link long} number of sends, and with them wearable transfers, saved since the app started.
+     */
+    synchronized long getSavedSendCount() {
+        return mReceived - mSent - mDigests;
+    }
+
+    /**
+     * Posts or updates the digest, if messages have been held, and opens the next window.
+     * Otherwise, the burst is over. Quiet time may have started during the burst, the digest is then posted silently.
+     */
+    private void closeWindow() {
+        final List<String> lines;
+        final int count;
+        synchronized (this) {
+            if (mHeld == 0) {
+                mWindowOpen = false;
+                mLines.clear();
+                mBurst = 0;
+                return;
+            }
+            mHeld = 0;
+            mDigests++;
+            lines = new ArrayList<>(mLines);
+            count = mBurst;
+            mTimer.schedule(mCloseWindowTask, mWindowMs, TimeUnit.MILLISECONDS);
+            Log.i(LOG_TAG, String.format("Digest of %d messages, %d of %d sends saved", count, mReceived - mSent - mDigests, mReceived));
+        }
+        DigestNotification.post(DIGEST_ID, App.getContext().getString(R.string.digest_title, count), lines, count, false,
+                TimePreference.isNowQuietTime());
+    }
+}
@@ -31,12 +31,12 @@ import android.widget.NumberPicker;
 
 /**
  * <code>NumberPreference</code> is an Integer Preference, allowing the user to set the maximum number
- * of headlines and links to retain.
+ * of headlines and links to retain. Since the archive is read one page at a time, its size is not limited
+ * by memory, which is why the picker offers the few steps in {@link #SIZES}.
  */
 public class NumberPreference extends DialogPreference {
     private static final int DEFAULT_SIZE = 12;
-    private static final int MIN_SIZE = 0;
-    private static final int MAX_SIZE = 100;
+    private static final int[] SIZES = {0, 12, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
 
     private NumberPicker mPicker = null;
     private int mSize;
@@ -90,20 +90,41 @@ public class NumberPreference extends DialogPreference {
      */
     @Override
     protected View onCreateDialogView() {
+        final String[] values = new String[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++) {
+            values[i] = String.valueOf(SIZES[i]);
+        }
         mPicker = new NumberPicker(getContext());
-        mPicker.setMinValue(MIN_SIZE);
-        mPicker.setMaxValue(MAX_SIZE);
-        mPicker.setValue(DEFAULT_SIZE);
+        mPicker.setMinValue(0);
+        mPicker.setMaxValue(SIZES.length - 1);
+        mPicker.setDisplayedValues(values);
+        mPicker.setValue(indexOf(DEFAULT_SIZE));
         return mPicker;
     }
 
+    /**
+     * Finds the step closest to the given size, since a size set by earlier versions may not be one of the steps.
+     *
+     * @param size {@link int}
+     * @return {@link int} index into the picker's steps
+     */
+    private static int indexOf(final int size) {
+        int k = 0;
+        for (int i = 1; i < SIZES.length; i++) {
+            if (Math.abs(SIZES[i] - size) < Math.abs(SIZES[k] - size)) {
+                k = i;
+            }
+        }
+        return k;
+    }
+
     /**
      * @inheritDoc
      */
     @Override
     protected void onBindDialogView(@NonNull final View v) {
         super.onBindDialogView(v);
-        mPicker.setValue(mSize);
+        mPicker.setValue(indexOf(mSize));
     }
 
     /**
@@ -113,7 +134,7 @@ public class NumberPreference extends DialogPreference {
     protected void onDialogClosed(final boolean positiveResult) {
         super.onDialogClosed(positiveResult);
         if (positiveResult) {
-            final int k = mPicker.getValue();
+            final int k = SIZES[mPicker.getValue()];
             if (!callChangeListener(k)) {
                 return;
             }
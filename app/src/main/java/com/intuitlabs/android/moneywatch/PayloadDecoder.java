@@ -0,0 +1,392 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.intuit.intuitwear.notifications.Action;
+import com.intuit.intuitwear.notifications.BigTextStyle;
+import com.intuit.intuitwear.notifications.ContentIntentExtra;
+import com.intuit.intuitwear.notifications.IWearNotificationContent;
+import com.intuit.intuitwear.notifications.InboxStyle;
+import com.intuit.intuitwear.notifications.Page;
+import com.intuit.intuitwear.notifications.WearableAction;
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+import com.intuitlabs.android.moneywatch.core.EntryDecoder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.intuitlabs.android.moneywatch.core.EntryDecoder.clip;
+import static com.intuitlabs.android.moneywatch.core.EntryDecoder.nullableString;
+import static com.intuitlabs.android.moneywatch.core.EntryDecoder.reader;
+
+/**
+ * The <code>PayloadDecoder</code> reads IntuitWear JSON payloads in a single pass with a streaming {@link JsonReader},
+ * without reflection and without building an intermediate tree. Fields that are not needed are skipped.
+ * A received payload is read once, for both the content handed to the IntuitWear SDK and the archive's entry.
+ * Only payloads the SDK's model can not hold are read a second time, by the platform-free {@link EntryDecoder}.
+ * <p/>
+ * The decoder keeps no state, a single instance is shared by all threads.
+ */
+final class PayloadDecoder {
+    private static final PayloadDecoder decoder = new PayloadDecoder();
+
+    private PayloadDecoder() {
+    }
+
+    /**
+     * A decoded payload.
+     */
+    static final class Decoded {
+        /**
+         * The archive's entry, its sequence number and receive time are only assigned by the {@link Archive}.
+         */
+        final ArchiveEntry entry;
+        /**
+         * Content for the IntuitWear SDK, or null if only the SDK's own parser can decode the payload.
+         */
+        final IWearNotificationContent content;
+
+        Decoded(final ArchiveEntry entry, final IWearNotificationContent content) {
+            this.entry = entry;
+            this.content = content;
+        }
+    }
+
+    static PayloadDecoder getInstance() {
+        return decoder;
+    }
+
+    /**
+     * Decodes the content handed to the IntuitWear SDK, and extracts the archive's entry from it.
+     *
+     * @param json {@link String} original JSON payload
+     * @return {@link Decoded}, without content if the payload is not a valid document, or uses
+     * a ListStyle or page backgrounds, which the SDK's model only accepts from its own parser.
+     */
+    Decoded decode(final String json) {
+        final IWearNotificationContent content = new IWearNotificationContent();
+        String feed = "";
+        final JsonReader reader = reader(json);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "style":
+                        content.setStyle(nullableString(reader));
+                        break;
+                    case "smallIcon":
+                        content.setSmallIcon(nullableString(reader));
+                        break;
+                    case "largeIcon":
+                        content.setLargeIcon(nullableString(reader));
+                        break;
+                    case "background":
+                        content.setBackground(nullableString(reader));
+                        break;
+                    case "contentTitle":
+                        content.setContentTitle(nullableString(reader));
+                        break;
+                    case "contentText":
+                        content.setContentText(nullableString(reader));
+                        break;
+                    case "contentIntentName":
+                        content.setContentIntentName(nullableString(reader));
+                        break;
+                    case "contentIntentExtras":
+                        content.setContentIntentExtras(contentIntentExtras(reader));
+                        break;
+                    case "InboxStyle":
+                        content.setInboxStyle(inboxStyle(reader));
+                        break;
+                    case "BigTextStyle":
+                        content.setBigTextStyle(bigTextStyle(reader));
+                        break;
+                    case "actions":
+                        content.setActions(actions(reader));
+                        break;
+                    case "wearableActions":
+                        content.setWearableActions(wearableActions(reader));
+                        break;
+                    case "pages":
+                        final List<Page> pages = pages(reader);
+                        if (pages == null) {
+                            return entryOnly(json);
+                        }
+                        content.setPages(pages);
+                        break;
+                    case "ListStyle":
+                        return entryOnly(json);
+                    case "feed":
+                        feed = string(nullableString(reader));
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | RuntimeException e) {
+            return entryOnly(json);
+        }
+        return new Decoded(entry(content, feed), content);
+    }
+
+    /**
+     * Extracts the fields shown in the archive list, the same ones the {@link EntryDecoder} extracts:
+     * big text title and text, the first action extra and the feed.
+     */
+    private static ArchiveEntry entry(final IWearNotificationContent content, final String feed) {
+        final BigTextStyle style = content.getBigTextStyle();
+        final List<Action> actions = content.getActions();
+        final String[] extras = actions != null && !actions.isEmpty() ? actions.get(0).getExtras() : null;
+        return new ArchiveEntry(0,
+                clip(string(style != null ? style.getBigContentTitle() : null)),
+                clip(string(style != null ? style.getBigText() : null)),
+                clip(string(extras != null && 0 < extras.length ? extras[0] : null)),
+                clip(feed),
+                0);
+    }
+
+    /**
+     * @return {@link Decoded} without content, the entry is extracted with what can be read.
+     */
+    private static Decoded entryOnly(final String json) {
+        return new Decoded(EntryDecoder.getInstance().decodeEntry(0, json, 0), null);
+    }
+
+    private static String string(final String s) {
+        return s != null ? s : "";
+    }
+
+    private static List<ContentIntentExtra> contentIntentExtras(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        final List<ContentIntentExtra> extras = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final ContentIntentExtra extra = new ContentIntentExtra();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "paramKey":
+                        extra.setParamKey(nullableString(reader));
+                        break;
+                    case "paramValue":
+                        extra.setParamValue(nullableString(reader));
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            extras.add(extra);
+        }
+        reader.endArray();
+        return extras;
+    }
+
+    private static InboxStyle inboxStyle(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        final InboxStyle style = new InboxStyle();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "line1":
+                    style.setLine1(nullableString(reader));
+                    break;
+                case "line2":
+                    style.setLine2(nullableString(reader));
+                    break;
+                case "line3":
+                    style.setLine3(nullableString(reader));
+                    break;
+                case "line4":
+                    style.setLine4(nullableString(reader));
+                    break;
+                case "line5":
+                    style.setLine5(nullableString(reader));
+                    break;
+                case "inboxTitle":
+                    style.setInboxTitle(nullableString(reader));
+                    break;
+                case "inboxSummary":
+                    style.setInboxSummary(nullableString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return style;
+    }
+
+    private static BigTextStyle bigTextStyle(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        final BigTextStyle style = new BigTextStyle();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "bigContentTitle":
+                    style.setBigContentTitle(nullableString(reader));
+                    break;
+                case "bigText":
+                    style.setBigText(nullableString(reader));
+                    break;
+                case "summary":
+                    style.setSummary(nullableString(reader));
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return style;
+    }
+
+    private static List<Action> actions(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        final List<Action> actions = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final Action action = new Action();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "icon":
+                        action.setIcon(nullableString(reader));
+                        break;
+                    case "actionName":
+                        action.setActionName(nullableString(reader));
+                        break;
+                    case "intentName":
+                        action.setIntentName(nullableString(reader));
+                        break;
+                    case "extras":
+                        action.setExtras(strings(reader));
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            actions.add(action);
+        }
+        reader.endArray();
+        return actions;
+    }
+
+    private static List<WearableAction> wearableActions(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        final List<WearableAction> actions = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final WearableAction action = new WearableAction();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "title":
+                        action.setTitle(nullableString(reader));
+                        break;
+                    case "icon":
+                        action.setIcon(nullableString(reader));
+                        break;
+                    case "actionIntentName":
+                        action.setActionIntentName(nullableString(reader));
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            actions.add(action);
+        }
+        reader.endArray();
+        return actions;
+    }
+
+    /**
+     * @return {@link List} of pages, or null if a page has a background, which can't be set on the SDK's model.
+     */
+    private static List<Page> pages(final JsonReader reader) throws IOException {
+        final List<Page> pages = new ArrayList<>();
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return pages;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            final Page page = new Page();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "pageTitle":
+                        page.setPageTitle(nullableString(reader));
+                        break;
+                    case "pageText":
+                        page.setPageText(nullableString(reader));
+                        break;
+                    case "background":
+                        if (nullableString(reader) != null) {
+                            return null;
+                        }
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+            pages.add(page);
+        }
+        reader.endArray();
+        return pages;
+    }
+
+    private static String[] strings(final JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        final List<String> strings = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            strings.add(nullableString(reader));
+        }
+        reader.endArray();
+        return strings.toArray(new String[strings.size()]);
+    }
+}
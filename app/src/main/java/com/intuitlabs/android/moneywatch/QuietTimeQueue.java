@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.util.Log;
+
+import com.intuitlabs.android.moneywatch.core.ArchiveEntry;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Messages received during quiet time are archived, but not sent. The <code>QuietTimeQueue</code> holds the
+ * sequence numbers of their archive entries, and schedules a single alarm at the end of the quiet period,
+ * which then delivers one summary notification for all held messages.
+ * <p/>
+ * Held sequence numbers are appended to a file, 8 bytes each, to survive the process being stopped over night.
+ * Since alarms don't survive a reboot, held messages are also delivered with the first message received after quiet time.
+ */
+class QuietTimeQueue {
+    private static final String LOG_TAG = QuietTimeQueue.class.getName();
+    private static final String FILE = "quiet";
+    private static final int SUMMARY_ID = 0x4d58;
+    private static QuietTimeQueue queue;
+
+    private final File mFile;
+    private long[] mHeld = new long[16];
+    private int mSize;
+
+    static synchronized QuietTimeQueue getInstance() {
+        if (queue == null) {
+            queue = new QuietTimeQueue(new File(App.getContext().getFilesDir(), FILE));
+        }
+        return queue;
+    }
+
+    /**
+     * @param file {@link File} the held sequence numbers are kept in
+     */
+    QuietTimeQueue(final File file) {
+        mFile = file;
+        load();
+    }
+
+    /**
+     * Holds an archived message, until quiet time is over. The message was found quiet before it got archived,
+     * so if quiet time has ended in the meantime, it is delivered right away.
+     *
+     * @param seq {@link long} sequence number of the message's archive entry
+     */
+    void hold(final long seq) {
+        final boolean first;
+        synchronized (this) {
+            if (mSize == mHeld.length) {
+                mHeld = Arrays.copyOf(mHeld, 2 * mSize);
+            }
+            mHeld[mSize++] = seq;
+            try {
+                final DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile, true));
+                try {
+                    out.writeLong(seq);
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                Log.e(LOG_TAG, e.toString());
+            }
+            first = mSize == 1;
+        }
+        if (!TimePreference.isNowQuietTime()) {
+            deliver();
+        } else if (first) {
+            schedule();
+        }
+    }
+
+    /**
+     * Delivers one summary notification for all held messages, unless it is still quiet time,
+     * in which case the alarm gets scheduled again, e.g. because the quiet period has been changed.
+     */
+    void deliver() {
+        final long[] held;
+        synchronized (this) {
+            if (mSize == 0) {
+                return;
+            }
+            if (TimePreference.isNowQuietTime()) {
+                schedule();
+                return;
+            }
+            held = Arrays.copyOf(mHeld, mSize);
+            mSize = 0;
+            if (mFile.exists() && !mFile.delete()) {
+                Log.e(LOG_TAG, "Could not delete " + mFile);
+            }
+        }
+        // only the newest entries are shown, so only those are read from the archive
+        final List<String> lines = new ArrayList<>(DigestNotification.LINES);
+        for (int i = Math.max(0, held.length - DigestNotification.LINES); i < held.length; i++) {
+            final ArchiveEntry entry = Archive.getInstance().getEntry(held[i]);
+            lines.add(entry != null ? DigestNotification.line(entry) : "");
+        }
+        Log.i(LOG_TAG, "Delivering " + held.length + " messages held during quiet time");
+        DigestNotification.post(SUMMARY_ID, App.getContext().getString(R.string.quiet_summary_title, held.length), lines, held.length, true, false);
+    }
+
+    /**
+     * Schedules the alarm at the end of the quiet period, replacing a previously scheduled one,
+     * as long as messages are held.
+     */
+    synchronized void schedule() {
+        if (mSize == 0) {
+            return;
+        }
+        final Context context = App.getContext();
+        final long end = TimePreference.getQuietTimeEnd(System.currentTimeMillis());
+        final PendingIntent operation = PendingIntent.getBroadcast(context, 0, new Intent(context, QuietTimeReceiver.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        final AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            alarmManager.set(AlarmManager.RTC_WAKEUP, end, operation);
+        } else {
+            alarmManager.setExact(AlarmManager.RTC_WAKEUP, end, operation);
+        }
+    }
+
+    private void load() {
+        if (!mFile.exists()) {
+            return;
+        }
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            try {
+                final int n = (int) (mFile.length() / 8);
+                mHeld = new long[Math.max(16, n)];
+                for (mSize = 0; mSize < n; mSize++) {
+                    mHeld[mSize] = in.readLong();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, e.toString());
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.util.Log;
+
+/**
+ * Receives the alarm, scheduled by the {@link QuietTimeQueue} at the end of the quiet period,
+ * and time zone changes, which move the quiet period.
+ */
+public class QuietTimeReceiver extends BroadcastReceiver {
+    private static final String LOG_TAG = QuietTimeReceiver.class.getSimpleName();
+
+    /**
+     * Delivers the held messages in the background, reading their archive entries may take a while.
+     * Once the time zone changed, the quiet time is compiled again first, held messages are then delivered,
+     * or the alarm is rescheduled.
+     *
+     * @param context {@link Context}
+     * @param intent  {@link Intent}
+     */
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        if (Intent.ACTION_TIMEZONE_CHANGED.equals(intent.getAction())) {
+            Log.i(LOG_TAG, "Time zone changed, compiling the quiet time again");
+            MoneyWatchConfig.timeZoneChanged();
+        }
+        final PendingResult result = goAsync();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    QuietTimeQueue.getInstance().deliver();
+                } finally {
+                    result.finish();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The <code>RateLimiter</code> keeps a noisy feed from flooding the wearable. Every feed has its own token bucket,
+ * refilled at the feed's rate, set in the settings, and holding up to <code>rate_burst</code> tokens,
+ * as defined in the app's resources.
+ * <p/>
+ * A bucket is a single {@link AtomicLong}, holding the time the bucket will be full again,
+ * which is advanced by one refill interval per taken token, with a compare-and-set. So taking a token never locks.
+ */
+class RateLimiter {
+    private static final String LOG_TAG = RateLimiter.class.getName();
+    private static final long HOUR_MS = 60 * 60 * 1000L;
+    private static RateLimiter limiter;
+
+    private final Map<String, Bucket> mBuckets; // one per feed, never modified after construction
+    private final Bucket mUnknown = new Bucket(); // for messages without a known feed, never throttled
+    private final int mBurst;
+
+    /**
+     * A token bucket, following the generic cell rate algorithm.
+     */
+    private static final class Bucket {
+        final AtomicLong full = new AtomicLong(); // time the bucket is full again
+        final AtomicLong throttled = new AtomicLong();
+        volatile long intervalMs; // time to refill one token, 0 for no limit
+
+        boolean tryAcquire(final long now, final int burst) {
+            while (true) {
+                final long interval = intervalMs;
+                if (interval == 0) {
+                    return true;
+                }
+                final long current = full.get();
+                final long next = Math.max(current, now) + interval;
+                if (burst * interval < next - now) {
+                    throttled.incrementAndGet();
+                    return false;
+                }
+                if (full.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@link RateLimiter}, with a bucket for every feed and the rates set in the settings.
+     */
+    static synchronized RateLimiter getInstance() {
+        if (limiter == null) {
+            limiter = new RateLimiter(
+                    App.getContext().getResources().getStringArray(R.array.feed_values),
+                    App.getContext().getResources().getInteger(R.integer.rate_burst));
+            final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(App.getContext());
+            for (final String feed : limiter.mBuckets.keySet()) {
+                limiter.setRate(feed, Integer.parseInt(sp.getString(getKey(feed), "0")));
+                Metrics.gauge("ratelimit.throttled." + feed, new Metrics.Gauge() {
+                    @Override
+                    public long get() {
+                        return limiter.getThrottledCount(feed);
+                    }
+                });
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * @param feeds {@link String[]} feeds, each getting its own bucket
+     * @param burst {@link int} number of tokens a full bucket holds
+     */
+    RateLimiter(final String[] feeds, final int burst) {
+        final Map<String, Bucket> buckets = new HashMap<>();
+        for (final String feed : feeds) {
+            buckets.put(feed, new Bucket());
+        }
+        mBuckets = Collections.unmodifiableMap(buckets);
+        mBurst = burst;
+    }
+
+    /**
+     * @param feed {@link String}
+     * @return {@link String} key of the preference, holding the feed's rate, in messages per hour.
+     */
+    static String getKey(final String feed) {
+        return App.getContext().getString(R.string.preference_key_rate) + "_" + feed;
+    }
+
+    /**
+     * Sets the rate, the feed's bucket is refilled at.
+     *
+     * @param feed    {@link String}
+     * @param perHour {@link int} messages per hour, 0 for no limit
+     */
+    void setRate(final String feed, final int perHour) {
+        final Bucket bucket = mBuckets.get(feed);
+        if (bucket != null) {
+            bucket.intervalMs = 0 < perHour ? HOUR_MS / perHour : 0;
+        }
+    }
+
+    /**
+     * Takes a token from the feed's bucket.
+     *
+     * @param feed {@link String}
+     * @return {@link boolean} false if the bucket is empty and the message should not be sent.
+     */
+    boolean tryAcquire(final String feed) {
+        final Bucket bucket = mBuckets.containsKey(feed) ? mBuckets.get(feed) : mUnknown;
+        final boolean acquired = bucket.tryAcquire(SystemClock.elapsedRealtime(), mBurst);
+        if (!acquired) {
+            Log.i(LOG_TAG, "Throttled a message of feed " + feed + ", " + bucket.throttled.get() + " so far");
+        }
+        return acquired;
+    }
+
+    /**
+     * @param feed {@link String}
+     * @return {@link long} number of the feed's messages, not sent since the app started.
+     */
+    long getThrottledCount(final String feed) {
+        final Bucket bucket = mBuckets.get(feed);
+        return bucket != null ? bucket.throttled.get() : 0;
+    }
+
+    /**
+     * @return {@link String[]} feeds, having a bucket.
+     */
+    String[] getFeeds() {
+        return mBuckets.keySet().toArray(new String[mBuckets.size()]);
+    }
+}
@@ -24,28 +24,20 @@ package com.intuitlabs.android.moneywatch;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.preference.ListPreference;
 import android.preference.Preference;
+import android.preference.PreferenceCategory;
 import android.preference.PreferenceFragment;
-import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import com.google.android.gcm.GCMRegistrar;
 import com.intuit.intuitwear.exceptions.IntuitWearException;
 import com.intuit.intuitwear.notifications.ContentBuilder;
 import com.intuit.intuitwear.notifications.IWearNotificationSender;
 import com.intuit.intuitwear.notifications.IWearNotificationType;
-import com.intuit.mobile.png.sdk.PushNotificationsV2;
-import com.intuit.mobile.png.sdk.UserTypeEnum;
-import com.intuit.mobile.png.sdk.callback.RegisterUserCallback;
-import com.intuit.mobile.png.sdk.callback.RemoveUserFromGroupCallback;
-
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * <code>SettingsFragment</code> shows a multi-select list of information sources as well as
@@ -63,96 +55,26 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
 
     /**
      * The selection of information sources, translates directly into PNG Groups.
-     * Here we register a user with a PNG group for every selected information-source and unregister the user from
-     * every png group that is mapped to unselected information source.
+     * Here we request the {@link SyncScheduler} to register a user with a PNG group for every selected
+     * information-source and to unregister the user from every png group that is mapped to unselected information source.
      */
     public static void syncGroups() {
-        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(App.getContext());
-        final Set<String> defaultFeeds = new HashSet<>(Arrays.asList(App.getContext().getResources().getStringArray(R.array.feed_defaults)));
-        final Set<String> ss = prefs.getStringSet(App.getContext().getString(R.string.preference_key_sources), defaultFeeds);
-        final String userId = prefs.getString(App.getContext().getString(R.string.preference_key_userid), "");
-
-        final String[] s0 = App.getContext().getResources().getStringArray(R.array.feed_values);
-
-        for (final String s : s0) { // all group values
-            boolean subscribe = false;
-            for (final String t : ss) { // selected or default group values
-                if (s.equals(t)) {
-                    subscribe = true;
-                    break;
-                }
-            }
-            if (!subscribe) {
-                new Thread() {
-                    @Override
-                    public void run() {
-                        super.run();
-                        PushNotificationsV2.removeUserFromGroup(App.getContext(), userId, s, new RemoveUserFromGroupCallback() {
-                            @Override
-                            public void onUserRemovedFromGroup() {
-                                setInSyncFlag(true);
-                                Log.i(LOG_TAG, "syncGroupNames onUserRemovedFromGroup " + s);
-                            }
-
-                            @Override
-                            public void onError(final String s, final String s2) {
-                                setInSyncFlag(false);
-                                Log.e(LOG_TAG, "syncGroupNames removeUserFromGroup " + s + s2);
-                            }
-                        });
-                    }
-                }.start();
-            }
-        }
-        // Subscribe to selected groups:
-        new Thread() {
-            @Override
-            public void run() {
-                super.run();
-                PushNotificationsV2.registerUser(App.getContext(), userId, UserTypeEnum.OTHER, ss.toArray(new String[ss.size()]),
-                        GCMRegistrar.getRegistrationId(App.getContext()),
-                        new RegisterUserCallback() {
-                            @Override
-                            public void onUserRegistered() {
-                                setInSyncFlag(true);
-                                Log.i(LOG_TAG, "syncGroupNames onUserRegistered for new groups " + ss.size());
-                            }
-
-                            @Override
-                            public void onError(final String s, final String s2) {
-                                setInSyncFlag(false);
-                                Log.e(LOG_TAG, "syncGroupNames registerUser " + s + s2);
-                            }
-                        });
-            }
-        }.start();
+        SyncScheduler.getInstance().requestSync();
     }
 
     /**
-     * To synchronize info source selection with the PNG server, in case a previous selection could not be saved.
+     * To synchronize info source selection with the PNG server, in case a previous selection could not be saved,
+     * or gateway operations are still pending, e.g. because the process got killed during a sync.
      *
      * @param context {@link android.content.Context}
      */
     static void syncIfNeeded(final Context context) {
-        if (!PreferenceManager.getDefaultSharedPreferences(App.getContext()).getBoolean(context.getString(R.string.preference_key_sync), false)) {
+        if (!MoneyWatchConfig.get().inSync) {
             Log.i(LOG_TAG, "New sync. attempt w/ PNG Server");
             syncGroups();
-        }
-    }
-
-    /**
-     * Sets a flag an keeps it in DefaultSharedPreferences, indicating if the last sync attempt was successful or not.
-     *
-     * @param inSync {@link boolean}
-     */
-    private static void setInSyncFlag(final boolean inSync) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(App.getContext());
-
-        SharedPreferences.Editor editor = prefs.edit();
-        editor.putBoolean(App.getContext().getString(R.string.preference_key_sync), inSync);
-        editor.apply();
-        if (!inSync) {
-            Log.i(LOG_TAG, "setInSyncFlag has been set to false");
+        } else if (!GatewayOutbox.getInstance().isEmpty()) {
+            Log.i(LOG_TAG, "Resuming pending operations w/ PNG Server");
+            SyncScheduler.getInstance().requestDrain();
         }
     }
 
@@ -177,6 +99,37 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
             });
         }
 
+        // Implement an OnPreferenceClickListener for the clear button
+        final Preference btnClear = findPreference(getString(R.string.preference_key_clear));
+        if (btnClear != null) {
+            btnClear.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference arg0) {
+                    Archive.getInstance().clear();
+                    getActivity().getFragmentManager().popBackStack();
+                    return true;
+                }
+            });
+        }
+
+        // Add a rate limit for every information source
+        final PreferenceCategory rates = (PreferenceCategory) findPreference(getString(R.string.preference_key_rate));
+        if (rates != null) {
+            final String[] names = getResources().getStringArray(R.array.feed_names);
+            final String[] values = getResources().getStringArray(R.array.feed_values);
+            for (int i = 0; i < values.length; i++) {
+                final ListPreference rate = new ListPreference(getActivity());
+                rate.setKey(RateLimiter.getKey(values[i]));
+                rate.setTitle(names[i]);
+                rate.setDialogTitle(names[i]);
+                rate.setEntries(R.array.rate_names);
+                rate.setEntryValues(R.array.rate_values);
+                rate.setDefaultValue("0");
+                rate.setSummary("%s");
+                rates.addPreference(rate);
+            }
+        }
+
         // Implement an OnPreferenceClickListener for the demo button
         final Preference btnDemo = findPreference(getString(R.string.preference_key_demo));
         if (btnDemo != null) {
@@ -249,8 +202,11 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
             } else if (key.equals(getString(R.string.preference_key_sync))) {
                 boolean inSync = getPreferenceScreen().getSharedPreferences().getBoolean(getString(R.string.preference_key_sync), false);
                 findPreference(getString(R.string.preference_key_sync)).setEnabled(!inSync);
-            } else if (key.equals(getString(R.string.preference_key_size))) {
-                Archive.getInstance().addItem(null); // shrinks the archive array if needed.
+            } else if (key.equals(getString(R.string.preference_key_index))) {
+                Archive.getInstance().setSearchIndexEnabled(sharedPreferences.getBoolean(key, true));
+            } else if (key.startsWith(getString(R.string.preference_key_rate) + "_")) {
+                final String feed = key.substring(getString(R.string.preference_key_rate).length() + 1);
+                RateLimiter.getInstance().setRate(feed, Integer.parseInt(sharedPreferences.getString(key, "0")));
             }
         }
     }
@@ -270,6 +226,6 @@ public class SettingsFragment extends PreferenceFragment implements SharedPrefer
                 Log.e(LOG_TAG, e.toString());
             }
         }
-        Archive.getInstance().addItem(message);
+        Archive.getInstance().post(message);
     }
 }
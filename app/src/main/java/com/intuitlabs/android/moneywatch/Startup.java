@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.app.Activity;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.google.android.gcm.GCMRegistrar;
+
+/**
+ * The <code>Startup</code> keeps the launch path short. Only the ui is set up before the first frame is drawn,
+ * everything else runs on a background thread after that:
+ * <ol>
+ * <li>user id, resolved by scanning the accounts only once, then kept in the preferences,</li>
+ * <li>registration, with GCM only if there is no registration id, and with the gateway only if
+ * the registration on the gateway is missing or stale,</li>
+ * <li>sync, of the information source selection, if a previous sync did not complete.</li>
+ * </ol>
+ * Every phase is timed, written to the log and kept in the {@link Metrics}, as <code>startup.&lt;phase&gt;</code>.
+ */
+final class Startup {
+    private static final String LOG_TAG = Startup.class.getSimpleName();
+    private static long processStartNs; // when the application got created, until its first activity got created
+
+    private Startup() {
+    }
+
+    /**
+     * @param startNs {@link long} as returned by {@link System#nanoTime()}, when <code>Application.onCreate</code> started
+     */
+    static void onApplicationCreated(final long startNs) {
+        processStartNs = startNs;
+        record("application", startNs);
+    }
+
+    /**
+     * Waits for the activity's first frame, then starts the background phases.
+     * The first draw is timed from the process start on a cold launch, and from the activity's start on any
+     * later launch in the same process.
+     *
+     * @param activity {@link Activity} launched
+     * @param startNs  {@link long} as returned by {@link System#nanoTime()}, when <code>Activity.onCreate</code> started
+     */
+    static void onActivityCreated(final Activity activity, final long startNs) {
+        record("activity", startNs);
+        final long launchNs = processStartNs != 0 ? processStartNs : startNs;
+        processStartNs = 0;
+        final View decor = activity.getWindow().getDecorView();
+        decor.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decor.getViewTreeObserver().removeOnPreDrawListener(this);
+                record("first_draw", launchNs);
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runDeferred();
+                    }
+                }, "startup").start();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Runs the phases deferred until after the first frame.
+     */
+    private static void runDeferred() {
+        long start = System.nanoTime();
+        final String userId = getUserId();
+        record("user_id", start);
+
+        start = System.nanoTime();
+        final boolean registering;
+        if (GCMRegistrar.getRegistrationId(App.getContext()).isEmpty()) {
+            Log.i(LOG_TAG, "No GCM registration id, registering");
+            GCMIntentService.register(userId); // the sync follows the registration
+            registering = true;
+        } else if (!GCMRegistrar.isRegisteredOnServer(App.getContext())) {
+            Log.i(LOG_TAG, "Registration on the gateway missing or stale, registering");
+            SyncScheduler.getInstance().requestRegistration();
+            registering = true;
+        } else {
+            registering = false;
+        }
+        record("registration", start);
+
+        if (!registering) {
+            start = System.nanoTime();
+            SettingsFragment.syncIfNeeded(App.getContext());
+            record("sync", start);
+        }
+    }
+
+    /**
+     * @return {@link String} user id, kept in the preferences, or resolved and kept, on the first launch
+     */
+    private static String getUserId() {
+        String userId = MoneyWatchConfig.get().userId;
+        if (userId.isEmpty()) {
+            userId = App.getId();
+            PreferenceManager.getDefaultSharedPreferences(App.getContext()).edit()
+                    .putString(App.getContext().getString(R.string.preference_key_userid), userId)
+                    .commit();
+            MoneyWatchConfig.reload(); // the sync, started next, reads the user id from the snapshot
+        }
+        return userId;
+    }
+
+    private static void record(final String phase, final long startNs) {
+        Metrics.histogram("startup." + phase).since(startNs);
+        Log.i(LOG_TAG, String.format("%s: %d ms", phase, (System.nanoTime() - startNs) / 1000000));
+    }
+}
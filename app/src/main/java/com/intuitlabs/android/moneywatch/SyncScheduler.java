@@ -0,0 +1,404 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.google.android.gcm.GCMRegistrar;
+import com.intuit.mobile.png.sdk.PushNotificationsV2;
+import com.intuit.mobile.png.sdk.UserTypeEnum;
+import com.intuit.mobile.png.sdk.callback.RegisterUserCallback;
+import com.intuit.mobile.png.sdk.callback.RemoveUserFromGroupCallback;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The <code>SyncScheduler</code> keeps the PNG groups in sync with the information source selection.
+ * <p/>
+ * Sync requests are debounced: a sync only starts once the selection has not changed for {@link #DEBOUNCE_MS},
+ * and any number of requests before that are coalesced into one sync. A sync is a batch, queueing the delta
+ * between the selection and the groups the gateway last acknowledged in the {@link GatewayOutbox}, then sending
+ * what is pending there. Batches run one at a time, on the scheduler's single thread, which waits for all
+ * the gateway's callbacks of a batch. Nothing is sent, if the selection matches the acknowledged groups.
+ * <p/>
+ * The sync flag is set once per batch, to the result of the whole batch. A failed batch is retried,
+ * after a jittered, exponentially growing delay, unless a newer request has been made in the meantime.
+ * Without a connection, the operations stay in the outbox, until the {@link ConnectivityReceiver} requests a drain.
+ */
+class SyncScheduler {
+    private static final String LOG_TAG = SyncScheduler.class.getName();
+    private static final long DEBOUNCE_MS = 2000;
+    private static final long CALLBACK_TIMEOUT_MS = 60 * 1000L;
+    private static final long BACKOFF_BASE_MS = 5 * 1000L;
+    private static final long BACKOFF_MAX_MS = 30 * 60 * 1000L;
+    private static final int MAX_ATTEMPTS = 8;
+    private static final int SYNCED = 0;
+    private static final int FAILED = 1;
+    private static final int OFFLINE = 2;
+    private static final Metrics.Counter batches = Metrics.counter("sync.batches");
+    private static final Metrics.Counter failures = Metrics.counter("sync.failed");
+    private static final Metrics.Counter retries = Metrics.counter("sync.retries");
+    private static final Metrics.Counter skipped = Metrics.counter("sync.skipped");
+    private static final Metrics.Histogram duration = Metrics.histogram("sync.batch");
+    private static SyncScheduler scheduler;
+
+    private final ScheduledExecutorService mExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Random mRandom = new Random();
+    private ScheduledFuture<?> mPending;
+    private int mGeneration; // incremented with every request, so a batch can tell if it is outdated
+    private int mAttempt; // failed batches, since the last request
+
+    /**
+     * @return {@link SyncScheduler}
+     */
+    static synchronized SyncScheduler getInstance() {
+        if (scheduler == null) {
+            scheduler = new SyncScheduler();
+        }
+        return scheduler;
+    }
+
+    /**
+     * Requests a sync of the PNG groups with the current information source selection.
+     * Returns right away, the sync starts once no more requests have been made for {@link #DEBOUNCE_MS}.
+     */
+    void requestSync() {
+        request(DEBOUNCE_MS);
+    }
+
+    /**
+     * Requests sending the operations pending in the {@link GatewayOutbox} right away, e.g. once connected.
+     */
+    void requestDrain() {
+        request(0);
+    }
+
+    /**
+     * Requests registering the user with all selected groups anew, right away,
+     * e.g. once the registration on the gateway is missing or stale.
+     */
+    void requestRegistration() {
+        GatewayOutbox.getInstance().setRegister(true);
+        request(0);
+    }
+
+    private synchronized void request(final long delayMs) {
+        mGeneration++;
+        mAttempt = 0;
+        if (mPending != null) {
+            mPending.cancel(false); // a batch already running completes, but won't retry or set the flag
+        }
+        schedule(mGeneration, delayMs);
+    }
+
+    /**
+     * Schedules a batch on the scheduler's thread.
+     */
+    private void schedule(final int generation, final long delayMs) {
+        mPending = mExecutor.schedule(new Runnable() {
+            @Override
+            public void run() {
+                runBatch(generation);
+            }
+        }, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a batch right away, on the scheduler's thread, and waits for it. The sync flag is set, but a failed batch
+     * is not retried, e.g. for load tests.
+     *
+     * @return {@link boolean} true if the groups are in sync
+     * @throws Exception if interrupted while waiting, or the batch failed unexpectedly
+     */
+    boolean syncNow() throws Exception {
+        return mExecutor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                final boolean inSync = sync() == SYNCED;
+                setInSyncFlag(inSync);
+                return inSync;
+            }
+        }).get();
+    }
+
+    /**
+     * Runs a batch, waits for its callbacks, then either sets the sync flag or schedules a retry.
+     * Without a connection, nothing is sent and the batch waits for the {@link ConnectivityReceiver}, instead of retrying.
+     */
+    private void runBatch(final int generation) {
+        final int result = sync();
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return; // outdated, the newer request's batch decides
+            }
+            mPending = null;
+            if (result == OFFLINE) {
+                Log.i(LOG_TAG, "No connection, the sync continues once connected");
+            } else if (result == FAILED) {
+                failures.inc();
+                if (++mAttempt < MAX_ATTEMPTS) {
+                    final long delay = getBackoff(mAttempt);
+                    retries.inc();
+                    Log.i(LOG_TAG, String.format("Sync failed, attempt %d, retrying in %d s", mAttempt, delay / 1000));
+                    schedule(generation, delay);
+                } else {
+                    Log.w(LOG_TAG, "Sync failed, giving up until the selection or the connection changes, or the app restarts");
+                }
+            }
+            setInSyncFlag(result == SYNCED);
+        }
+    }
+
+    /**
+     * Queues the delta in the outbox and sends what is pending there, if connected.
+     *
+     * @return {@link int} {@link #SYNCED}, {@link #FAILED} or {@link #OFFLINE}
+     */
+    private static int sync() {
+        final long start = System.nanoTime();
+        batches.inc();
+        int result;
+        try {
+            GCMIntentService.initGateway();
+            final GatewayOutbox outbox = GatewayOutbox.getInstance();
+            plan(outbox);
+            if (outbox.isEmpty()) {
+                skipped.inc();
+                Log.d(LOG_TAG, "Groups unchanged since the last acknowledged sync, nothing to send");
+                result = SYNCED;
+            } else if (!ConnectivityReceiver.isConnected(App.getContext())) {
+                result = OFFLINE;
+            } else {
+                result = drain(outbox) ? SYNCED : FAILED;
+            }
+            ConnectivityReceiver.setEnabled(App.getContext(), !outbox.isEmpty());
+        } catch (RuntimeException e) { // e.g. the gateway sdk not initialized yet
+            Log.e(LOG_TAG, e.toString());
+            result = FAILED;
+        }
+        duration.since(start);
+        return result;
+    }
+
+    /**
+     * Queues the delta between the selected groups and the groups the gateway last acknowledged in the outbox.
+     * A group, which is back at its acknowledged state, has its pending operation cancelled.
+     * Without acknowledged groups for this user and device, e.g. on the first sync, a full registration is queued,
+     * subscribing to every selected group and unsubscribing from every other group. While the registration is pending,
+     * only the groups it has not been acknowledged for yet are queued again.
+     */
+    private static void plan(final GatewayOutbox outbox) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(App.getContext());
+        final Set<String> selected = MoneyWatchConfig.get().feeds;
+        final Set<String> acked = getAcknowledgedGroups(prefs);
+        final Map<String, Boolean> registered = outbox.getRegistered(); // empty, unless a registration is pending
+
+        final Set<String> groups = new HashSet<>(Arrays.asList(App.getContext().getResources().getStringArray(R.array.feed_values)));
+        if (acked == null) {
+            outbox.setRegister(true);
+        } else {
+            groups.addAll(acked);
+        }
+        for (final String group : groups) {
+            final boolean subscribe = selected.contains(group);
+            final boolean done = outbox.isRegister() ?
+                    Boolean.valueOf(subscribe).equals(registered.get(group)) :
+                    acked != null && acked.contains(group) == subscribe;
+            if (done) {
+                outbox.cancel(group); // e.g. a subscribe followed by an unsubscribe
+            } else {
+                outbox.put(group, subscribe);
+            }
+        }
+    }
+
+    /**
+     * Sends the operations pending in the outbox, registering the user with all groups to subscribe to in one call,
+     * and removing the user from every group to unsubscribe from, then waits for all the gateway's callbacks.
+     * Nothing establishes if the gateway's registration adds groups or replaces the user's groups, so the registration
+     * always carries the whole set of groups the user is to be in, acknowledged or added, and never a removed one.
+     * Acknowledged operations are removed from the outbox and added to the groups kept in DefaultSharedPreferences,
+     * even if other calls of the batch failed. A full registration only counts once all its operations succeeded,
+     * until then, the outbox keeps the operations acknowledged for it.
+     *
+     * @return {@link boolean} true if the outbox has been emptied
+     */
+    private static boolean drain(final GatewayOutbox outbox) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(App.getContext());
+        final String userId = MoneyWatchConfig.get().userId;
+        final String registrationId = GCMRegistrar.getRegistrationId(App.getContext());
+        final boolean full = outbox.isRegister();
+        final Map<String, Boolean> registered = outbox.getRegistered();
+
+        final List<String> added = new ArrayList<>();
+        final List<String> removed = new ArrayList<>();
+        for (final Map.Entry<String, Boolean> op : outbox.getOps().entrySet()) {
+            (op.getValue() ? added : removed).add(op.getKey());
+        }
+        final boolean register = !added.isEmpty() || full && !registered.containsValue(true);
+        final Set<String> subscribed = new HashSet<>(added);
+        if (full) {
+            for (final Map.Entry<String, Boolean> op : registered.entrySet()) {
+                if (op.getValue()) {
+                    subscribed.add(op.getKey());
+                }
+            }
+        } else {
+            subscribed.addAll(getAcknowledgedGroups(prefs));
+        }
+        subscribed.removeAll(removed);
+
+        final CountDownLatch done = new CountDownLatch(removed.size() + (register ? 1 : 0));
+        final Map<String, Boolean> ackedOps = new ConcurrentHashMap<>();
+        for (final String feed : removed) {
+            PushNotificationsV2.removeUserFromGroup(App.getContext(), userId, feed, new RemoveUserFromGroupCallback() {
+                @Override
+                public void onUserRemovedFromGroup() {
+                    Log.i(LOG_TAG, "syncGroupNames onUserRemovedFromGroup " + feed);
+                    ackedOps.put(feed, false);
+                    done.countDown();
+                }
+
+                @Override
+                public void onError(final String s, final String s2) {
+                    Log.e(LOG_TAG, "syncGroupNames removeUserFromGroup " + s + s2);
+                    done.countDown();
+                }
+            });
+        }
+        if (register) {
+            PushNotificationsV2.registerUser(App.getContext(), userId, UserTypeEnum.OTHER, subscribed.toArray(new String[subscribed.size()]),
+                    registrationId,
+                    new RegisterUserCallback() {
+                        @Override
+                        public void onUserRegistered() {
+                            Log.i(LOG_TAG, "syncGroupNames onUserRegistered for new groups " + added.size());
+                            for (final String feed : added) {
+                                ackedOps.put(feed, true);
+                            }
+                            done.countDown();
+                        }
+
+                        @Override
+                        public void onError(final String s, final String s2) {
+                            Log.e(LOG_TAG, "syncGroupNames registerUser " + s + s2);
+                            done.countDown();
+                        }
+                    });
+        }
+        try {
+            if (!done.await(CALLBACK_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "Timed out waiting for the gateway, " + done.getCount() + " calls unanswered");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // keep what the gateway acknowledged, a full registration only counts once it fully succeeded
+        final Map<String, Boolean> acked = new HashMap<>(ackedOps);
+        outbox.acknowledge(acked);
+        final Set<String> groups;
+        if (!full) {
+            groups = new HashSet<>(getAcknowledgedGroups(prefs));
+            for (final Map.Entry<String, Boolean> op : acked.entrySet()) {
+                if (op.getValue()) {
+                    groups.add(op.getKey());
+                } else {
+                    groups.remove(op.getKey());
+                }
+            }
+        } else if (outbox.getOps().isEmpty()) {
+            groups = new HashSet<>();
+            for (final Map.Entry<String, Boolean> op : outbox.getRegistered().entrySet()) {
+                if (op.getValue()) {
+                    groups.add(op.getKey());
+                }
+            }
+            outbox.setRegister(false);
+            GCMRegistrar.setRegisteredOnServer(App.getContext(), true); // fresh, until the registration's lifespan expires
+        } else {
+            groups = null;
+        }
+        if (groups != null) {
+            prefs.edit()
+                    .putStringSet(App.getContext().getString(R.string.preference_key_groups), groups)
+                    .putString(App.getContext().getString(R.string.preference_key_groups_registration), userId + "/" + registrationId)
+                    .apply();
+        }
+        return outbox.isEmpty();
+    }
+
+    /**
+     * @param prefs {@link SharedPreferences}
+     * @return {@link Set} groups the gateway last acknowledged for this user and device, or null if not known
+     */
+    private static Set<String> getAcknowledgedGroups(final SharedPreferences prefs) {
+        final String registration = MoneyWatchConfig.get().userId + "/" + GCMRegistrar.getRegistrationId(App.getContext());
+        return registration.equals(prefs.getString(App.getContext().getString(R.string.preference_key_groups_registration), null)) ?
+                prefs.getStringSet(App.getContext().getString(R.string.preference_key_groups), null) : null;
+    }
+
+    /**
+     * Equal jitter: half the exponential delay is fixed, the other half is random,
+     * so that retries of many devices, failing at the same time, spread out.
+     *
+     * @param attempt {@link int} number of failed attempts, starting at 1
+     * @return {@link long} delay in milliseconds
+     */
+    private long getBackoff(final int attempt) {
+        final long delay = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(attempt - 1, 16));
+        return delay / 2 + (long) (mRandom.nextDouble() * (delay / 2));
+    }
+
+    /**
+     * Sets a flag an keeps it in DefaultSharedPreferences, indicating if the last sync attempt was successful or not.
+     *
+     * @param inSync {@link boolean}
+     */
+    private static void setInSyncFlag(final boolean inSync) {
+        // read from the preferences, a snapshot may not show a change made by the previous batch yet
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(App.getContext());
+        final String key = App.getContext().getString(R.string.preference_key_sync);
+        if (prefs.getBoolean(key, false) != inSync) {
+            prefs.edit().putBoolean(key, inSync).apply();
+        }
+        if (!inSync) {
+            Log.i(LOG_TAG, "setInSyncFlag has been set to false");
+        }
+    }
+}
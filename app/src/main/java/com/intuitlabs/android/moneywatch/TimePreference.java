@@ -22,17 +22,16 @@
 package com.intuitlabs.android.moneywatch;
 
 import android.content.Context;
-import android.content.SharedPreferences;
 import android.content.res.TypedArray;
 import android.preference.DialogPreference;
-import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.View;
 import android.widget.TimePicker;
 
-import java.text.ParseException;
+import com.intuitlabs.android.moneywatch.core.Clock;
+import com.intuitlabs.android.moneywatch.core.QuietTime;
+
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
@@ -44,9 +43,6 @@ import java.util.Locale;
  */
 @SuppressWarnings("UnusedDeclaration")
 public class TimePreference extends DialogPreference {
-    private static final String LOG_TAG = NumberPreference.class.getName();
-    private static final String DEFAULT_TIME = "00:00";
-
     private int mHour = 0;
     private int mMinute = 0;
     private TimePicker mPicker = null;
@@ -81,29 +77,17 @@ public class TimePreference extends DialogPreference {
      * @return {@link boolean} if now is inside the enabled quiet time
      */
     public static boolean isNowQuietTime() {
-        final SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(App.getContext());
-        boolean result = false;
-
-        if (sp.getBoolean(App.getContext().getString(R.string.preference_key_ts), false)) {
-
-            final String s0 = sp.getString(App.getContext().getString(R.string.preference_key_t0), DEFAULT_TIME);
-            final String s1 = sp.getString(App.getContext().getString(R.string.preference_key_t1), DEFAULT_TIME);
-            final String sn = new SimpleDateFormat("HH:mm", Locale.US).format(new Date());
-
-            final Date d0 = TimePreference.toDate(s0);
-            final Date d1 = TimePreference.toDate(s1);
-            final Date dn = TimePreference.toDate(sn);
-
-            boolean b = d0.before(d1);
-            if (d0.before(d1)) {
-                result = d0.before(dn) && dn.before(d1);
-            } else {
-                result = d0.before(dn) || dn.before(d1);
-            }
-            Log.d(LOG_TAG, "isNowQuiteTime = " + result);
+        return QuietTime.isNowQuietTime(MoneyWatchConfig.get().quiet, Clock.SYSTEM);
+    }
 
-        }
-        return result;
+    /**
+     * Finds the next end of the quiet period.
+     *
+     * @param now {@link long} current time, in milliseconds since January 1, 1970 00:00:00.0 UTC
+     * @return {@link long} time, the next quiet period ends, in milliseconds since January 1, 1970 00:00:00.0 UTC
+     */
+    public static long getQuietTimeEnd(final long now) {
+        return MoneyWatchConfig.get().quiet.getEnd(now);
     }
 
     /**
@@ -113,7 +97,7 @@ public class TimePreference extends DialogPreference {
      * @return {@link int} hours
      */
     public static int getHour(final String time) {
-        return Integer.parseInt(time.split(":")[0]);
+        return QuietTime.getHour(time);
     }
 
     /**
@@ -123,7 +107,7 @@ public class TimePreference extends DialogPreference {
      * @return {@link int} minutes
      */
     public static int getMinute(final String time) {
-        return Integer.parseInt(time.split(":")[1]);
+        return QuietTime.getMinute(time);
     }
 
     /**
@@ -133,11 +117,7 @@ public class TimePreference extends DialogPreference {
      * @return {@link Date}
      */
     public static Date toDate(final String s) {
-        try {
-            return new SimpleDateFormat("HH:mm", Locale.US).parse(s);
-        } catch (ParseException e) {
-            return null;
-        }
+        return QuietTime.toDate(s);
     }
 
     /**
@@ -234,7 +214,7 @@ public class TimePreference extends DialogPreference {
     @Override
     protected void onSetInitialValue(final boolean restorePersistedValue, final Object defaultValue) {
 
-        final String time = restorePersistedValue ? getPersistedString(DEFAULT_TIME) : defaultValue.toString();
+        final String time = restorePersistedValue ? getPersistedString(QuietTime.DEFAULT_TIME) : defaultValue.toString();
         setTime(getHour(time), getMinute(time));
         updateSummary();
     }
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Measures insert and read throughput of the {@link ArchiveStore} at several archive sizes.
+ * Inserts are written in group commits of {@link #FLUSH_SIZE} entries, each followed by a compaction,
+ * like the app's archive does. Reads fetch the first visible window of the archive list, or a single payload.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class ArchiveStoreBenchmark {
+    private static final int FLUSH_SIZE = 16;
+    private static final int PAGE_SIZE = 16;
+
+    @Param({"12", "1000", "10000"})
+    public int size;
+
+    private File mDir;
+    private ArchiveStore mStore;
+    private RetentionPolicy mPolicy;
+    private String mPayload;
+    private long mNext;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("archive", "");
+        if (!mDir.delete() || !mDir.mkdirs()) {
+            throw new IOException("Unable to create " + mDir);
+        }
+        mStore = new ArchiveStore(new FileStorage(mDir), Clock.SYSTEM, true);
+        mPolicy = new RetentionPolicy(size, 0, 0);
+        mPayload = Payloads.notification();
+        for (int i = 0; i < size; i++) {
+            mStore.stage(mPayload);
+            if (mStore.getStagedCount() == FLUSH_SIZE) {
+                mStore.flush();
+            }
+        }
+        mStore.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        delete(mDir);
+    }
+
+    @Benchmark
+    public ArchiveEntry insert() {
+        final ArchiveEntry entry = mStore.stage(mPayload);
+        mStore.evict(size);
+        if (mStore.getStagedCount() == FLUSH_SIZE) {
+            mStore.flush();
+            mStore.compact(mPolicy);
+        }
+        return entry;
+    }
+
+    @Benchmark
+    public List<ArchiveEntry> readPage() {
+        return mStore.page(Long.MAX_VALUE, PAGE_SIZE, size);
+    }
+
+    @Benchmark
+    public String readPayload() {
+        final long first = mStore.getFirstSeq(size);
+        final long seq = first + mNext++ % (mStore.getNextSeq() - first);
+        return mStore.getPayload(seq);
+    }
+
+    private static void delete(final File f) {
+        final File[] files = f.listFiles();
+        if (files != null) {
+            for (final File child : files) {
+                delete(child);
+            }
+        }
+        if (!f.delete()) {
+            f.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.TimeZone;
+
+/**
+ * Measures quiet time checks per second, as done for every received message, for a quiet time from 22:00
+ * to 7:00 on weekdays. The {@link Clock} advances by a minute on every check, so that the checks cover the whole week.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+public class QuietTimeBenchmark {
+    private static final long MINUTE_MS = 60 * 1000L;
+
+    private QuietSchedule mSchedule;
+    private Clock mClock;
+    private long mTime;
+
+    @Setup
+    public void setUp() {
+        mSchedule = QuietSchedule.fromSettings(true, "22:00", "7:00",
+                new HashSet<>(Arrays.asList("2", "3", "4", "5", "6")), TimeZone.getTimeZone("America/New_York"));
+        mTime = System.currentTimeMillis();
+        mClock = new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return mTime += MINUTE_MS;
+            }
+        };
+    }
+
+    @Benchmark
+    public boolean isNowQuietTime() {
+        return QuietTime.isNowQuietTime(mSchedule, mClock);
+    }
+}
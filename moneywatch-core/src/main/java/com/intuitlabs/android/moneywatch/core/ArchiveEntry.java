@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * <code>ArchiveEntry</code> is the compact form of an archived notification, holding only what the archive
+ * list shows. The fields are extracted once, when a payload gets archived, so that showing the archive
+ * never needs to parse JSON.
+ */
+public final class ArchiveEntry {
+    private static final int VERSION = 1;
+    public static final int MAX_FIELD = 16 * 1024; // chars, keeps every field below writeUTF's 64K bytes
+
+    /**
+     * Sequence number of the entry in the archive, increasing with every archived notification.
+     */
+    public final long seq;
+    public final String title;
+    public final String text;
+    public final String link;
+    public final String feed;
+    /**
+     * Time the notification was received, in milliseconds since January 1, 1970 00:00:00.0 UTC.
+     */
+    public final long received;
+
+    public ArchiveEntry(final long seq, final String title, final String text, final String link, final String feed, final long received) {
+        this.seq = seq;
+        this.title = title;
+        this.text = text;
+        this.link = link;
+        this.feed = feed;
+        this.received = received;
+    }
+
+    /**
+     * Extracts the fields shown in the archive list from an IntuitWear JSON payload.
+     *
+     * @param seq      {@link long} sequence number
+     * @param json     {@link String} original JSON payload
+     * @param received {@link long} time the payload was received
+     * @return {@link ArchiveEntry}, with empty fields if the payload is not a valid document
+     */
+    public static ArchiveEntry fromPayload(final long seq, final String json, final long received) {
+        return EntryDecoder.getInstance().decodeEntry(seq, json, received);
+    }
+
+    /**
+     * Restores an entry from its binary form.
+     *
+     * @param seq {@link long} sequence number
+     * @param b   {@link byte[]} as created by {@link #toBytes()}
+     * @return {@link ArchiveEntry}
+     * @throws IOException if the record is malformed
+     */
+    public static ArchiveEntry fromBytes(final long seq, final byte[] b) throws IOException {
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(b));
+        final int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported archive entry version " + version);
+        }
+        final long received = in.readLong();
+        return new ArchiveEntry(seq, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), received);
+    }
+
+    /**
+     * @return {@link byte[]} binary form of this entry, the sequence number is not included.
+     */
+    public byte[] toBytes() {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream(64 + title.length() + text.length() + link.length());
+        final DataOutputStream out = new DataOutputStream(buf);
+        try {
+            out.writeByte(VERSION);
+            out.writeLong(received);
+            out.writeUTF(title);
+            out.writeUTF(text);
+            out.writeUTF(link);
+            out.writeUTF(feed);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // writing to memory, only thrown if a field is too long
+        }
+        return buf.toByteArray();
+    }
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+import java.util.zip.DataFormatException;
+
+/**
+ * The <code>ArchiveStore</code> keeps the archive's entries, newest first, independent of any platform.
+ * For every archived payload, a compact {@link ArchiveEntry} is appended to the entry log, and the payload,
+ * compressed by the {@link PayloadCodec}, to a separate payload log, which is only read when a payload is requested.
+ * <p/>
+ * New entries are staged in memory first and written to the logs in a single group commit, when {@link #flush()} is called.
+ * Staged entries are readable right away. The store neither schedules flushes nor notifies anybody about changes,
+ * both is left to its owner, which also passes in the archive's current limits.
+ */
+public class ArchiveStore {
+    private static final Logger log = Logger.getLogger(ArchiveStore.class.getName());
+    public static final String LOG_ENTRIES = "entries";
+    public static final String LOG_PAYLOADS = "payloads";
+
+    private final Clock mClock;
+    private final PayloadCodec mCodec = new PayloadCodec();
+    private final List<ArchiveEntry> mStaged = new ArrayList<>(); // oldest first
+    private final List<String> mStagedPayloads = new ArrayList<>();
+    private final SegmentLog mLog;
+    private final SegmentLog mPayloads; // null, if the original payloads are not kept
+    private volatile long mFlushes; // only written while holding the lock, read without it
+    private volatile long mFlushedItems;
+    private long mEvictedBefore; // entries with a lower sequence number are no longer part of the archive
+
+    /**
+     * Opens the store's logs.
+     *
+     * @param storage      {@link Storage} providing the logs
+     * @param clock        {@link Clock} the time entries are received at is taken from
+     * @param keepPayloads {@link boolean} false, to not keep the original payloads at all
+     */
+    public ArchiveStore(final Storage storage, final Clock clock, final boolean keepPayloads) {
+        mClock = clock;
+        mLog = storage.open(LOG_ENTRIES);
+        mPayloads = keepPayloads ? storage.open(LOG_PAYLOADS) : null;
+        mEvictedBefore = Math.max(0, mLog.nextSeq() - mLog.count());
+    }
+
+    /**
+     * Stages a new entry on top of the archive.
+     *
+     * @param payload {@link String} original JSON payload
+     * @return {@link ArchiveEntry} the new entry
+     */
+    public ArchiveEntry stage(final String payload) {
+        return stage(payload, null);
+    }
+
+    /**
+     * Stages a new entry on top of the archive, for a payload that has already been decoded.
+     *
+     * @param payload {@link String} original JSON payload
+     * @param decoded {@link ArchiveEntry} the fields extracted from the payload, or null to extract them here.
+     *                Its sequence number and receive time are ignored.
+     * @return {@link ArchiveEntry} the new entry
+     */
+    public synchronized ArchiveEntry stage(final String payload, final ArchiveEntry decoded) {
+        final long seq = getNextSeq();
+        final long received = mClock.currentTimeMillis();
+        final ArchiveEntry entry = decoded == null ? ArchiveEntry.fromPayload(seq, payload, received) :
+                new ArchiveEntry(seq, decoded.title, decoded.text, decoded.link, decoded.feed, received);
+        mStaged.add(entry);
+        mStagedPayloads.add(payload);
+        return entry;
+    }
+
+    /**
+     * Drops all staged entries, e.g. because they could not be written, their sequence numbers are given out again.
+     */
+    public synchronized void dropStaged() {
+        mStaged.clear();
+        mStagedPayloads.clear();
+    }
+
+    /**
+     * @return {@link List} the staged entries, oldest first.
+     */
+    public synchronized List<ArchiveEntry> getStaged() {
+        return new ArrayList<>(mStaged);
+    }
+
+    /**
+     * @return {@link int} number of entries, not written to the logs yet.
+     */
+    public synchronized int getStagedCount() {
+        return mStaged.size();
+    }
+
+    /**
+     * Moves the start of the archive forward, if it holds more entries than allowed.
+     *
+     * @param maxEntries {@link int} maximum number of entries
+     * @return {@link long} the new start of the archive, or -1 if it did not move.
+     */
+    public synchronized long evict(final int maxEntries) {
+        final long start = getNextSeq() - maxEntries;
+        if (mEvictedBefore < start) {
+            mEvictedBefore = start;
+            return start;
+        }
+        return -1;
+    }
+
+    /**
+     * Writes all staged entries to the logs in a single group commit.
+     *
+     * @return {@link List} of the written entries, oldest first, empty if nothing was written.
+     */
+    public synchronized List<ArchiveEntry> flush() {
+        try {
+            return write();
+        } catch (IOException e) {
+            log.severe(e.toString());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return {@link List} of the written entries, oldest first, empty if nothing was staged.
+     * @throws IOException if the entries could not be written, they stay staged then
+     */
+    private List<ArchiveEntry> write() throws IOException {
+        if (mStaged.isEmpty()) {
+            return Collections.emptyList();
+        }
+        final List<byte[]> records = new ArrayList<>(mStaged.size());
+        for (final ArchiveEntry entry : mStaged) {
+            records.add(entry.toBytes());
+        }
+        mLog.appendAll(records);
+        mFlushes++;
+        mFlushedItems += mStaged.size();
+        log.fine("Group commit of " + mStaged.size() + " items");
+        if (mPayloads != null) {
+            appendPayloads(mStaged, mStagedPayloads);
+        }
+        final List<ArchiveEntry> flushed = new ArrayList<>(mStaged);
+        mStaged.clear();
+        mStagedPayloads.clear();
+        return flushed;
+    }
+
+    /**
+     * Reads a page of entries. Only the segments holding the requested entries are read.
+     *
+     * @param beforeSeq  {@link long} sequence number following the newest entry to return,
+     *                   {@link Long#MAX_VALUE} for the first page, the last returned entry's sequence number for the next page
+     * @param limit      {@link int} maximum number of entries to return
+     * @param maxEntries {@link int} maximum number of entries, the archive holds
+     * @return {@link List} of entries, newest first, empty once the end of the archive has been reached
+     */
+    public synchronized List<ArchiveEntry> page(final long beforeSeq, final int limit, final int maxEntries) {
+        final long start = getFirstSeq(maxEntries);
+        final long end = Math.min(beforeSeq, getNextSeq()); // exclusive
+        final List<ArchiveEntry> entries = new ArrayList<>((int) Math.max(0, Math.min(limit, end - start)));
+        long seq = end - 1;
+        for (; mLog.nextSeq() <= seq && start <= seq && entries.size() < limit; seq--) {
+            entries.add(mStaged.get((int) (seq - mLog.nextSeq())));
+        }
+        final int n = (int) Math.min(limit - entries.size(), seq + 1 - start);
+        if (0 < n) {
+            final List<byte[]> records = mLog.readBefore(seq + 1, n);
+            for (int i = 0; i < records.size(); i++) {
+                try {
+                    entries.add(ArchiveEntry.fromBytes(seq - i, records.get(i)));
+                } catch (IOException e) {
+                    log.severe(e.toString());
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Entries have consecutive sequence numbers, from {@link #getFirstSeq(int)} up to, but excluding {@link #getNextSeq()}.
+     *
+     * @param maxEntries {@link int} maximum number of entries, the archive holds
+     * @return {@link long} sequence number of the oldest retained entry.
+     */
+    public synchronized long getFirstSeq(final int maxEntries) {
+        return Math.max(mEvictedBefore, getNextSeq() - maxEntries);
+    }
+
+    /**
+     * @return {@link long} sequence number the next staged entry will get.
+     */
+    public synchronized long getNextSeq() {
+        return mLog.nextSeq() + mStaged.size();
+    }
+
+    /**
+     * @return {@link long} sequence number the first staged entry has, or will get.
+     */
+    public synchronized long getFlushedSeq() {
+        return mLog.nextSeq();
+    }
+
+    /**
+     * @return {@link long} entries with a lower sequence number are no longer part of the archive.
+     */
+    public synchronized long getEvictedBefore() {
+        return mEvictedBefore;
+    }
+
+    /**
+     * Reads an original JSON payload from the payload log.
+     *
+     * @param seq {@link long} sequence number of the {@link ArchiveEntry}
+     * @return {@link String} JSON payload or null, if the payload is not kept
+     */
+    public synchronized String getPayload(final long seq) {
+        final long firstStaged = mLog.nextSeq();
+        if (firstStaged <= seq) {
+            return seq - firstStaged < mStagedPayloads.size() ? mStagedPayloads.get((int) (seq - firstStaged)) : null;
+        }
+        if (mPayloads == null) {
+            return null;
+        }
+        final byte[] record = mPayloads.read(seq);
+        if (record == null || record.length < 9 || readLong(record) != seq) {
+            return null; // the payload log is only best effort, it may lag behind the entry log
+        }
+        try {
+            return mCodec.decode(record, 8);
+        } catch (DataFormatException e) {
+            log.severe(e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * @return {@link float} compression ratio achieved for the payloads archived since the store got opened.
+     */
+    public float getPayloadCompressionRatio() {
+        return mCodec.getCompressionRatio();
+    }
+
+    /**
+     * Drops all entries, including the staged ones. Staged entries are written first, so that their
+     * sequence numbers are not given out again.
+     *
+     * @return {@link long} the new start of the archive
+     * @throws IOException if the staged entries could not be written, nothing has been dropped then
+     */
+    public synchronized long clear() throws IOException {
+        write();
+        mStaged.clear();
+        mStagedPayloads.clear();
+        mEvictedBefore = mLog.nextSeq();
+        mLog.dropBefore(mEvictedBefore);
+        if (mPayloads != null) {
+            mPayloads.dropBefore(mEvictedBefore);
+        }
+        return mEvictedBefore;
+    }
+
+    /**
+     * Moves the start of the archive forward, as far as the {@link RetentionPolicy} requires,
+     * and drops all segments before it. Compaction drops whole segments and never rewrites entries.
+     *
+     * @param policy {@link RetentionPolicy}
+     * @return {@link long} the new start of the archive, or -1 if it did not move.
+     */
+    public synchronized long compact(final RetentionPolicy policy) {
+        long seq = Math.max(mEvictedBefore, getNextSeq() - policy.maxEntries);
+        if (0 < policy.maxAgeMs) {
+            final long time = mClock.currentTimeMillis() - policy.maxAgeMs;
+            seq = Math.max(seq, mLog.modifiedBefore(time));
+        }
+        if (0 < policy.maxBytes) {
+            // the budget is split between entry and payload log, by their current share
+            final long entryBytes = mLog.sizeInBytes();
+            final long payloadBytes = mPayloads != null ? mPayloads.sizeInBytes() : 0;
+            final long total = Math.max(1, entryBytes + payloadBytes);
+            seq = Math.max(seq, mLog.newestFitting(policy.maxBytes * entryBytes / total));
+            if (mPayloads != null) {
+                seq = Math.max(seq, mPayloads.newestFitting(policy.maxBytes * payloadBytes / total));
+            }
+        }
+        final long start = Math.min(seq, mLog.nextSeq()); // staged entries are not subject to age or size limits yet
+        final boolean moved = mEvictedBefore < start;
+        mEvictedBefore = Math.max(mEvictedBefore, start);
+        mLog.dropBefore(mEvictedBefore);
+        if (mPayloads != null) {
+            mPayloads.dropBefore(mEvictedBefore);
+        }
+        return moved ? start : -1;
+    }
+
+    /**
+     * @return {@link long} size of the logs on disk.
+     */
+    public synchronized long getSizeInBytes() {
+        return mLog.sizeInBytes() + (mPayloads != null ? mPayloads.sizeInBytes() : 0);
+    }
+
+    /**
+     * @return {@link long} number of group commits written so far, read without waiting for a running flush.
+     */
+    public long getFlushCount() {
+        return mFlushes;
+    }
+
+    /**
+     * @return {@link long} number of disk writes, group commits have replaced so far.
+     */
+    public long getSavedWriteCount() {
+        return mFlushedItems - mFlushes;
+    }
+
+    /**
+     * Payload records hold the sequence number of their entry, followed by the encoded payload.
+     * A payload record has the same sequence number as its entry. If an earlier append failed, the payload log
+     * is behind the entry log, and gets empty records for the lost payloads first.
+     */
+    private void appendPayloads(final List<ArchiveEntry> entries, final List<String> payloads) {
+        final List<byte[]> records = new ArrayList<>(payloads.size());
+        for (long seq = mPayloads.nextSeq(); seq < entries.get(0).seq; seq++) {
+            records.add(new byte[0]);
+        }
+        for (int i = 0; i < payloads.size(); i++) {
+            final byte[] encoded = mCodec.encode(payloads.get(i));
+            final byte[] record = new byte[8 + encoded.length];
+            final long seq = entries.get(i).seq;
+            for (int k = 0; k < 8; k++) {
+                record[k] = (byte) (seq >>> (56 - 8 * k));
+            }
+            System.arraycopy(encoded, 0, record, 8, encoded.length);
+            records.add(record);
+        }
+        try {
+            mPayloads.appendAll(records);
+            log.fine("Payloads compressed " + mCodec);
+        } catch (IOException e) {
+            log.severe(e.toString());
+        }
+    }
+
+    private static long readLong(final byte[] b) {
+        long v = 0;
+        for (int k = 0; k < 8; k++) {
+            v = v << 8 | (b[k] & 0xff);
+        }
+        return v;
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+/**
+ * The <code>EntryDecoder</code> extracts an {@link ArchiveEntry} from an IntuitWear JSON payload in a single pass
+ * with a streaming {@link JsonReader}, without reflection and without building an intermediate tree.
+ * Fields that are not needed are skipped.
+ * <p/>
+ * The decoder keeps no state, a single instance is shared by all threads.
+ */
+public final class EntryDecoder {
+    private static final EntryDecoder decoder = new EntryDecoder();
+
+    private EntryDecoder() {
+    }
+
+    public static EntryDecoder getInstance() {
+        return decoder;
+    }
+
+    /**
+     * Extracts only the fields shown in the archive list: big text title and text, the first action extra and the feed.
+     *
+     * @param seq      {@link long} sequence number
+     * @param json     {@link String} original JSON payload
+     * @param received {@link long} time the payload was received
+     * @return {@link ArchiveEntry}, with empty fields if the payload is not a valid document
+     */
+    public ArchiveEntry decodeEntry(final long seq, final String json, final long received) {
+        String title = "";
+        String text = "";
+        String link = "";
+        String feed = "";
+        final JsonReader reader = reader(json);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "BigTextStyle":
+                        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+                            reader.skipValue();
+                            break;
+                        }
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            switch (reader.nextName()) {
+                                case "bigContentTitle":
+                                    title = clip(string(reader));
+                                    break;
+                                case "bigText":
+                                    text = clip(string(reader));
+                                    break;
+                                default:
+                                    reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        break;
+                    case "actions":
+                        link = clip(firstExtra(reader));
+                        break;
+                    case "feed":
+                        feed = clip(string(reader));
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not a valid document, the entry is kept with what could be extracted
+        }
+        return new ArchiveEntry(seq, title, text, link, feed, received);
+    }
+
+    /**
+     * @param json {@link String} JSON document
+     * @return {@link JsonReader} as lenient as Gson's own parser
+     */
+    public static JsonReader reader(final String json) {
+        final JsonReader reader = new JsonReader(new StringReader(json));
+        reader.setLenient(true);
+        return reader;
+    }
+
+    /**
+     * @return {@link String} the next value, as a string, or null if it is null or not a primitive.
+     */
+    public static String nullableString(final JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            case BOOLEAN:
+                return Boolean.toString(reader.nextBoolean());
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    private static String firstExtra(final JsonReader reader) throws IOException {
+        String extra = "";
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            reader.skipValue();
+            return extra;
+        }
+        reader.beginArray();
+        if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if ("extras".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    if (reader.hasNext()) {
+                        extra = string(reader);
+                    }
+                    while (reader.hasNext()) {
+                        reader.skipValue();
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        while (reader.hasNext()) {
+            reader.skipValue();
+        }
+        reader.endArray();
+        return extra;
+    }
+
+    private static String string(final JsonReader reader) throws IOException {
+        final String s = nullableString(reader);
+        return s != null ? s : "";
+    }
+
+    /**
+     * @param s {@link String} field value
+     * @return {@link String} the value, cut to at most {@link ArchiveEntry#MAX_FIELD} chars
+     */
+    public static String clip(final String s) {
+        return s.length() <= ArchiveEntry.MAX_FIELD ? s : s.substring(0, ArchiveEntry.MAX_FIELD);
+    }
+}
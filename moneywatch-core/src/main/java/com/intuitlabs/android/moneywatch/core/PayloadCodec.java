@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * <code>PayloadCodec</code> compresses JSON payloads for the archive. CNNMoney payloads all share the
+ * IntuitWear JSON skeleton (see assets/notification.json), which is why deflate is primed with a preset
+ * dictionary holding that skeleton. Even short payloads then compress to little more than their
+ * headline, text and link.
+ * <p/>
+ * The first byte of an encoded payload identifies the format. The dictionary must never change
+ * for an existing format, a changed dictionary needs a new format id.
+ */
+public class PayloadCodec {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final byte FORMAT_STORED = 0;
+    private static final byte FORMAT_DEFLATE_V1 = 1;
+
+    /**
+     * Preset dictionary, most frequent strings last, since deflate finds nearer matches cheaper.
+     */
+    private static final byte[] DICTIONARY_V1 = (
+            "\"InboxStyle\": {\"inboxTitle\": \"\", \"inboxSummary\": \"\", \"line1\": \"\", \"line2\": \"\"}, " +
+                    "\"contentTitle\": \"\", \"contentText\": \"\", \"largeIcon\": \"\", \"background\": \"\", \"feed\": \"\", " +
+                    "Market News Personal Finance Mutual Funds stocks Dow S&P Nasdaq Fed " +
+                    "http://money.cnn.com/data/markets/ http://money.cnn.com/2015/ index.html " +
+                    "{\n  \"style\": \"BigTextStyle\",\n  \"BigTextStyle\": {\n    \"bigContentTitle\": \"\",\n" +
+                    "    \"bigText\": \"\",\n    \"summary\": \"\"\n  },\n  \"smallIcon\": \"sm_icon\",\n" +
+                    "  \"actions\": [\n    {\n      \"actionName\": \"Open on phone\",\n" +
+                    "      \"intentName\": \"com.intuitlabs.android.moneywatch.DismissAndView\",\n" +
+                    "      \"extras\": [\"http://money.cnn.com/\"]\n    }\n  ]\n}" +
+                    "{\"style\":\"BigTextStyle\",\"BigTextStyle\":{\"bigContentTitle\":\"\",\"bigText\":\"\",\"summary\":\"\"}," +
+                    "\"smallIcon\":\"sm_icon\",\"actions\":[{\"actionName\":\"Open on phone\"," +
+                    "\"intentName\":\"com.intuitlabs.android.moneywatch.DismissAndView\",\"extras\":[\"http://money.cnn.com/\"]}]}"
+    ).getBytes(UTF8);
+
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_COMPRESSION);
+    private final Inflater mInflater = new Inflater();
+    private final byte[] mBuf = new byte[4096];
+    private long mRawBytes;
+    private long mEncodedBytes;
+
+    /**
+     * Compresses a payload. If compression does not pay off, the payload is stored as is.
+     *
+     * @param json {@link String} JSON payload
+     * @return {@link byte[]} encoded payload
+     */
+    public synchronized byte[] encode(final String json) {
+        final byte[] raw = json.getBytes(UTF8);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2 + 16);
+        out.write(FORMAT_DEFLATE_V1);
+        mDeflater.reset();
+        mDeflater.setDictionary(DICTIONARY_V1);
+        mDeflater.setInput(raw);
+        mDeflater.finish();
+        while (!mDeflater.finished()) {
+            out.write(mBuf, 0, mDeflater.deflate(mBuf));
+        }
+        byte[] encoded = out.toByteArray();
+        if (raw.length < encoded.length - 1) {
+            encoded = new byte[raw.length + 1];
+            encoded[0] = FORMAT_STORED;
+            System.arraycopy(raw, 0, encoded, 1, raw.length);
+        }
+        mRawBytes += raw.length;
+        mEncodedBytes += encoded.length;
+        return encoded;
+    }
+
+    /**
+     * Restores a payload, encoded by {@link #encode}.
+     *
+     * @param b      {@link byte[]} buffer holding the encoded payload
+     * @param offset {@link int} offset of the encoded payload
+     * @return {@link String} JSON payload, exactly as encoded
+     * @throws DataFormatException if the payload is corrupt or uses an unknown format
+     */
+    public synchronized String decode(final byte[] b, final int offset) throws DataFormatException {
+        if (b.length <= offset) {
+            throw new DataFormatException("Empty payload");
+        }
+        switch (b[offset]) {
+            case FORMAT_STORED:
+                return new String(b, offset + 1, b.length - offset - 1, UTF8);
+            case FORMAT_DEFLATE_V1:
+                final ByteArrayOutputStream out = new ByteArrayOutputStream(4 * (b.length - offset));
+                mInflater.reset();
+                mInflater.setInput(b, offset + 1, b.length - offset - 1);
+                while (!mInflater.finished()) {
+                    final int n = mInflater.inflate(mBuf);
+                    if (n == 0) {
+                        if (mInflater.needsDictionary()) {
+                            mInflater.setDictionary(DICTIONARY_V1);
+                        } else {
+                            throw new DataFormatException("Truncated payload");
+                        }
+                    }
+                    out.write(mBuf, 0, n);
+                }
+                return new String(out.toByteArray(), UTF8);
+            default:
+                throw new DataFormatException("Unknown payload format " + b[offset]);
+        }
+    }
+
+    /**
+     * @return {@link float} compression ratio (uncompressed / compressed size) of all payloads encoded so far,
+     * or 1 if nothing has been encoded yet.
+     */
+    public synchronized float getCompressionRatio() {
+        return mEncodedBytes == 0 ? 1f : (float) mRawBytes / mEncodedBytes;
+    }
+
+    /**
+     * @return {@link String} short summary of the bytes saved, for logging.
+     */
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%d -> %d bytes (%.2fx)", mRawBytes, mEncodedBytes, getCompressionRatio());
+    }
+}
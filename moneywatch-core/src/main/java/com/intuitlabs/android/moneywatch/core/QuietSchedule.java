@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * A <code>QuietSchedule</code> is the quiet time, compiled into one bit for every minute of the week.
+ * Checking if a time is quiet is then a little arithmetic and one bit test, without any allocation.
+ * <p/>
+ * The schedule is compiled from any number of windows, each applying to a set of weekdays.
+ * The app keeps the schedule in use in its configuration snapshot, and only compiles it again, when a quiet time setting changes.
+ * It uses the time zone it was built with, so it has to be built again, once the default time zone changes.
+ */
+public final class QuietSchedule {
+    private static final int MINUTES_PER_DAY = 24 * 60;
+    private static final int MINUTES_PER_WEEK = 7 * MINUTES_PER_DAY;
+    private static final long MINUTE_MS = 60 * 1000L;
+    private static final int ALL_DAYS = 0x7f;
+    private static final int EPOCH_DAY = Calendar.THURSDAY - Calendar.SUNDAY; // January 1, 1970 was a Thursday
+
+    private final long[] mBits;
+    private final TimeZone mZone;
+
+    /**
+     * Compiles windows into a schedule.
+     */
+    public static final class Builder {
+        private final long[] mBits = new long[(MINUTES_PER_WEEK + 63) / 64];
+
+        /**
+         * Adds a quiet window, starting at the start minute, and ending before the end minute,
+         * on the next day, if the end is not after the start. A window ending at its start covers the whole day.
+         *
+         * @param days  {@link int} bit mask of the weekdays the window starts on, bit 0 is Sunday
+         * @param start {@link int} minute of the day the window starts
+         * @param end   {@link int} minute of the day the window ends
+         * @return {@link Builder}
+         */
+        public Builder add(final int days, final int start, final int end) {
+            final int length = start < end ? end - start : MINUTES_PER_DAY - start + end;
+            for (int day = 0; day < 7; day++) {
+                if ((days & (1 << day)) != 0) {
+                    for (int i = 0; i < length; i++) {
+                        final int m = (day * MINUTES_PER_DAY + start + i) % MINUTES_PER_WEEK;
+                        mBits[m >>> 6] |= 1L << m;
+                    }
+                }
+            }
+            return this;
+        }
+
+        /**
+         * @param zone {@link TimeZone} the schedule's times are in
+         * @return {@link QuietSchedule}
+         */
+        public QuietSchedule build(final TimeZone zone) {
+            return new QuietSchedule(Arrays.copyOf(mBits, mBits.length), zone);
+        }
+    }
+
+    private QuietSchedule(final long[] bits, final TimeZone zone) {
+        mBits = bits;
+        mZone = zone;
+    }
+
+    /**
+     * Compiles the quiet period, defined in the settings, on the selected weekdays.
+     *
+     * @param enabled {@link boolean} true if the quiet time is turned on
+     * @param t0      {@link String} start, formatted like so <i>HH:mm</i>
+     * @param t1      {@link String} end, formatted like so <i>HH:mm</i>
+     * @param days    {@link Set} of {@link java.util.Calendar} weekdays, as strings, or null for every day
+     * @param zone    {@link TimeZone} the times are in
+     * @return {@link QuietSchedule}
+     */
+    public static QuietSchedule fromSettings(final boolean enabled, final String t0, final String t1, final Set<String> days, final TimeZone zone) {
+        final Builder builder = new Builder();
+        if (enabled) {
+            int mask = days == null ? ALL_DAYS : 0;
+            if (days != null) {
+                for (final String day : new HashSet<>(days)) {
+                    mask |= 1 << (Integer.parseInt(day) - Calendar.SUNDAY);
+                }
+            }
+            builder.add(mask,
+                    QuietTime.getHour(t0) * 60 + QuietTime.getMinute(t0),
+                    QuietTime.getHour(t1) * 60 + QuietTime.getMinute(t1));
+        }
+        return builder.build(zone);
+    }
+
+    /**
+     * @param time {@link long} in milliseconds since January 1, 1970 00:00:00.0 UTC
+     * @return {@link boolean} true if the given time is quiet
+     */
+    public boolean isQuiet(final long time) {
+        final int m = minuteOfWeek(time);
+        return (mBits[m >>> 6] & (1L << m)) != 0;
+    }
+
+    /**
+     * Finds the end of the current quiet window or, if the given time is not quiet, of the next one.
+     *
+     * @param time {@link long} in milliseconds since January 1, 1970 00:00:00.0 UTC
+     * @return {@link long} time the window ends, the given time, if the schedule has no quiet minute at all,
+     * or a day later, if every minute is quiet.
+     */
+    public long getEnd(final long time) {
+        final int start = minuteOfWeek(time);
+        boolean quiet = false;
+        for (int i = 0; i <= 2 * MINUTES_PER_WEEK; i++) {
+            final int m = (start + i) % MINUTES_PER_WEEK;
+            final boolean bit = (mBits[m >>> 6] & (1L << m)) != 0;
+            if (quiet && !bit) {
+                return (time / MINUTE_MS + i) * MINUTE_MS;
+            }
+            quiet |= bit;
+            if (!quiet && MINUTES_PER_WEEK <= i) {
+                return time;
+            }
+        }
+        return time + MINUTES_PER_DAY * MINUTE_MS;
+    }
+
+    private int minuteOfWeek(final long time) {
+        final long minutes = (time + mZone.getOffset(time)) / MINUTE_MS;
+        final long day = (minutes / MINUTES_PER_DAY + EPOCH_DAY) % 7;
+        return (int) (day * MINUTES_PER_DAY + minutes % MINUTES_PER_DAY);
+    }
+}
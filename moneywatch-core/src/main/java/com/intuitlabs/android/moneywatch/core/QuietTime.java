@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * <code>QuietTime</code> reads the times of day, the settings keep for the quiet time, formatted like so <i>HH:mm</i>.
+ */
+public final class QuietTime {
+    public static final String DEFAULT_TIME = "00:00";
+
+    private QuietTime() {
+    }
+
+    /**
+     * Extracts the hours from a string formatted time.
+     *
+     * @param time {@link String}
+     * @return {@link int} hours
+     */
+    public static int getHour(final String time) {
+        return Integer.parseInt(time.split(":")[0]);
+    }
+
+    /**
+     * Extracts the minutes from a string formatted time.
+     *
+     * @param time {@link String}
+     * @return {@link int} minutes
+     */
+    public static int getMinute(final String time) {
+        return Integer.parseInt(time.split(":")[1]);
+    }
+
+    /**
+     * Converts the given string into a Date.
+     *
+     * @param s {@link String} that can be using to instantiate a Date
+     * @return {@link Date}
+     */
+    public static Date toDate(final String s) {
+        try {
+            return new SimpleDateFormat("HH:mm", Locale.US).parse(s);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Find out if the current time falls into the quiet time.
+     *
+     * @param schedule {@link QuietSchedule}
+     * @param clock    {@link Clock}
+     * @return {@link boolean} if now is inside the quiet time
+     */
+    public static boolean isNowQuietTime(final QuietSchedule schedule, final Clock clock) {
+        return schedule.isQuiet(clock.currentTimeMillis());
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+/**
+ * <code>RetentionPolicy</code> combines the limits set for the archive: a maximum number of entries,
+ * a maximum age and a maximum size on disk. The archive enforces age and size by dropping whole segments,
+ * so a few entries beyond the limits may be kept, until their segment expires as a whole.
+ */
+public final class RetentionPolicy {
+    private static final long DAY_MS = 24 * 60 * 60 * 1000L;
+    private static final long KILOBYTE = 1024;
+
+    public final int maxEntries;
+    /**
+     * Maximum age in milliseconds, 0 for no limit.
+     */
+    public final long maxAgeMs;
+    /**
+     * Maximum size of the archive's logs in bytes, 0 for no limit.
+     */
+    public final long maxBytes;
+
+    public RetentionPolicy(final int maxEntries, final long maxAgeMs, final long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxAgeMs = maxAgeMs;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Creates the policy from the values, the settings keep for the archive.
+     *
+     * @param size  {@link int} maximum number of entries
+     * @param days  {@link String} maximum age in days, "0" for no limit
+     * @param kilos {@link String} maximum size in kilobytes, "0" for no limit
+     * @return {@link RetentionPolicy}
+     */
+    public static RetentionPolicy fromSettings(final int size, final String days, final String kilos) {
+        return new RetentionPolicy(size, parse(days) * DAY_MS, parse(kilos) * KILOBYTE);
+    }
+
+    private static long parse(final String s) {
+        try {
+            return Math.max(0, Long.parseLong(s));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,448 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * <code>SegmentLog</code> is an append-only log of length-prefixed records, spread over a number of
+ * small segment files. Every record gets a sequence number and each segment file is named after the
+ * sequence number of its first record, so the position of every record is known from the directory
+ * listing alone.
+ * <p/>
+ * Appending a record costs a single write to the active segment. Reading the newest records only
+ * touches the newest segments and retention is enforced by deleting whole segments.
+ */
+public class SegmentLog {
+    private static final Logger log = Logger.getLogger(SegmentLog.class.getName());
+    private static final String SUFFIX = ".seg";
+    private static final int HEADER = 4;
+
+    /**
+     * Number of records a segment holds, before a new segment is started.
+     */
+    public static final int SEGMENT_RECORDS = 32;
+
+    private final File mDir;
+    private final List<Long> mSegments = new ArrayList<>(); // first sequence number of each segment, ascending
+    private long mNextSeq;
+    private FileOutputStream mOut;
+
+    /**
+     * Opens (or creates) the log, kept in the given directory.
+     * A record that was only partially written, when the process died, gets truncated.
+     *
+     * @param dir {@link File} directory holding the segment files
+     */
+    public SegmentLog(final File dir) {
+        mDir = dir;
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            log.severe("Unable to create " + mDir);
+        }
+        final File[] files = mDir.listFiles();
+        if (files != null) {
+            for (final File f : files) {
+                final String name = f.getName();
+                if (name.endsWith(SUFFIX)) {
+                    try {
+                        mSegments.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        log.warning("Ignoring " + name);
+                    }
+                }
+            }
+        }
+        Collections.sort(mSegments);
+        mNextSeq = 0;
+        if (!mSegments.isEmpty()) {
+            final long first = mSegments.get(mSegments.size() - 1);
+            mNextSeq = first + recover(segmentFile(first));
+        }
+    }
+
+    /**
+     * Appends a record to the end of the log.
+     *
+     * @param record {@link byte[]}
+     * @return {@link long} sequence number assigned to the record
+     * @throws IOException if the record could not be written
+     */
+    public synchronized long append(final byte[] record) throws IOException {
+        return appendAll(Collections.singletonList(record));
+    }
+
+    /**
+     * Appends a batch of records to the end of the log, issuing one write per touched segment.
+     *
+     * @param records {@link List} of records, oldest first
+     * @return {@link long} sequence number assigned to the last record of the batch
+     * @throws IOException if the records could not be written, the log is then left as it was before the call
+     */
+    public synchronized long appendAll(final List<byte[]> records) throws IOException {
+        final long nextSeq = mNextSeq;
+        final int segments = mSegments.size();
+        final long length = segments == 0 ? 0 : segmentFile(mSegments.get(segments - 1)).length();
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        final byte[] header = new byte[HEADER];
+        try {
+            for (final byte[] record : records) {
+                if (mSegments.isEmpty() || mNextSeq - mSegments.get(mSegments.size() - 1) >= SEGMENT_RECORDS) {
+                    write(buf);
+                    roll();
+                }
+                putInt(header, 0, record.length);
+                buf.write(header);
+                buf.write(record);
+                mNextSeq++;
+            }
+            write(buf);
+        } catch (IOException e) {
+            rollback(nextSeq, segments, length);
+            throw e;
+        }
+        return mNextSeq - 1;
+    }
+
+    /**
+     * Reads the newest records, newest first. Older segments are not touched.
+     *
+     * @param n {@link int} maximum number of records to return
+     * @return {@link List} of records, newest first
+     */
+    public synchronized List<byte[]> readNewest(final int n) {
+        return readBefore(mNextSeq, n);
+    }
+
+    /**
+     * Reads the records preceding the given sequence number, newest first.
+     * Only the segments holding the requested records are touched.
+     *
+     * @param seq {@link long} sequence number following the newest record to return
+     * @param n   {@link int} maximum number of records to return
+     * @return {@link List} of records, newest first. The first record has sequence number
+     * <code>min(seq, nextSeq()) - 1</code>, the following ones are in descending order, without gaps.
+     */
+    public synchronized List<byte[]> readBefore(final long seq, final int n) {
+        final long end = Math.min(seq, mNextSeq); // exclusive
+        final List<byte[]> result = new ArrayList<>(Math.max(0, (int) Math.min(n, count())));
+        if (mSegments.isEmpty() || end <= mSegments.get(0)) {
+            return result;
+        }
+        int i = Collections.binarySearch(mSegments, end - 1);
+        if (i < 0) {
+            i = -i - 2; // segment starting before end - 1
+        }
+        for (; 0 <= i && result.size() < n; i--) {
+            final long first = mSegments.get(i);
+            final List<byte[]> records = readSegment(segmentFile(first));
+            for (int j = (int) Math.min(records.size(), end - first) - 1; 0 <= j && result.size() < n; j--) {
+                result.add(records.get(j));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads a single record.
+     *
+     * @param seq {@link long} sequence number of the record
+     * @return {@link byte[]} the record, or null if it is no longer (or not yet) kept in the log
+     */
+    public synchronized byte[] read(final long seq) {
+        if (mSegments.isEmpty() || seq < mSegments.get(0) || mNextSeq <= seq) {
+            return null;
+        }
+        int i = Collections.binarySearch(mSegments, seq);
+        if (i < 0) {
+            i = -i - 2; // segment starting before seq
+        }
+        final long first = mSegments.get(i);
+        final List<byte[]> records = readSegment(segmentFile(first));
+        return seq - first < records.size() ? records.get((int) (seq - first)) : null;
+    }
+
+    /**
+     * @return {@link long} sequence number, the next appended record will get.
+     */
+    public synchronized long nextSeq() {
+        return mNextSeq;
+    }
+
+    /**
+     * Deletes every segment, whose records all have a lower sequence number than the given one.
+     * The segment holding the given sequence number is kept, which is why readers still need to
+     * limit the records they return.
+     *
+     * @param seq {@link long} sequence number of the oldest record to retain
+     */
+    public synchronized void dropBefore(final long seq) {
+        while (!mSegments.isEmpty() && end(0) <= seq) {
+            if (mSegments.size() == 1) {
+                closeOut();
+            }
+            final File f = segmentFile(mSegments.remove(0));
+            if (!f.delete()) {
+                log.warning("Unable to delete " + f);
+            }
+        }
+        if (mSegments.isEmpty()) {
+            // an empty segment keeps the next sequence number, in case the process restarts
+            try {
+                roll();
+            } catch (IOException e) {
+                log.severe(e.toString());
+            }
+        }
+    }
+
+    /**
+     * Finds the segments that have not been written to since the given time.
+     * Since a segment's modification time is the time its newest record was written, all their records are older.
+     *
+     * @param time {@link long} in milliseconds since January 1, 1970 00:00:00.0 UTC
+     * @return {@link long} sequence number following the last record of these segments
+     */
+    public synchronized long modifiedBefore(final long time) {
+        long seq = mSegments.isEmpty() ? mNextSeq : mSegments.get(0);
+        for (int i = 0; i < mSegments.size() && segmentFile(mSegments.get(i)).lastModified() < time; i++) {
+            seq = end(i);
+        }
+        return seq;
+    }
+
+    /**
+     * Finds the newest segments that together fit into the given number of bytes.
+     *
+     * @param maxBytes {@link long}
+     * @return {@link long} sequence number of the first record of these segments
+     */
+    public synchronized long newestFitting(final long maxBytes) {
+        long bytes = 0;
+        long seq = mNextSeq;
+        for (int i = mSegments.size() - 1; 0 <= i; i--) {
+            bytes += segmentFile(mSegments.get(i)).length();
+            if (maxBytes < bytes) {
+                break;
+            }
+            seq = mSegments.get(i);
+        }
+        return seq;
+    }
+
+    /**
+     * @return {@link long} size of all segment files in bytes.
+     */
+    public synchronized long sizeInBytes() {
+        long bytes = 0;
+        for (final long first : mSegments) {
+            bytes += segmentFile(first).length();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return {@link long} number of records currently kept in the log.
+     */
+    public synchronized long count() {
+        return mSegments.isEmpty() ? 0 : mNextSeq - mSegments.get(0);
+    }
+
+    /**
+     * Starts a new segment, which will hold the next appended record.
+     */
+    private void roll() throws IOException {
+        closeOut();
+        mSegments.add(mNextSeq);
+        mOut = new FileOutputStream(segmentFile(mNextSeq), true);
+    }
+
+    /**
+     * Writes buffered records to the active segment and resets the buffer.
+     */
+    private void write(final ByteArrayOutputStream buf) throws IOException {
+        if (0 < buf.size()) {
+            if (mOut == null) {
+                mOut = new FileOutputStream(segmentFile(mSegments.get(mSegments.size() - 1)), true);
+            }
+            buf.writeTo(mOut);
+            mOut.flush();
+            buf.reset();
+        }
+    }
+
+    /**
+     * Undoes a partially written batch: deletes the segments it started and cuts the records
+     * it appended to the previously active segment.
+     *
+     * @param nextSeq  {@link long} next sequence number before the batch
+     * @param segments {@link int} number of segments before the batch
+     * @param length   {@link long} length of the previously active segment before the batch
+     */
+    private void rollback(final long nextSeq, final int segments, final long length) {
+        closeOut();
+        while (segments < mSegments.size()) {
+            final File f = segmentFile(mSegments.remove(mSegments.size() - 1));
+            if (f.exists() && !f.delete()) {
+                log.warning("Unable to delete " + f);
+            }
+        }
+        if (0 < segments) {
+            final File f = segmentFile(mSegments.get(segments - 1));
+            try {
+                final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+                try {
+                    if (length < raf.length()) {
+                        raf.setLength(length);
+                    }
+                } finally {
+                    raf.close();
+                }
+            } catch (IOException e) {
+                log.severe(e.toString());
+                mNextSeq = mSegments.get(segments - 1) + recover(f); // keep describing what is on disk
+                return;
+            }
+        }
+        mNextSeq = nextSeq;
+    }
+
+    private void closeOut() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                log.warning(e.toString());
+            }
+            mOut = null;
+        }
+    }
+
+    /**
+     * @return {@link long} sequence number following the last record of the i-th segment.
+     */
+    private long end(final int i) {
+        return i + 1 < mSegments.size() ? mSegments.get(i + 1) : mNextSeq;
+    }
+
+    private File segmentFile(final long firstSeq) {
+        return new File(mDir, String.format(Locale.US, "%019d", firstSeq) + SUFFIX);
+    }
+
+    /**
+     * Counts the complete records in a segment and cuts off a trailing, partially written record.
+     *
+     * @param f {@link File} segment file
+     * @return {@link int} number of complete records
+     */
+    private static int recover(final File f) {
+        int count = 0;
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                final long length = raf.length();
+                long pos = 0;
+                while (pos + HEADER <= length) {
+                    raf.seek(pos);
+                    final int len = raf.readInt();
+                    if (len < 0 || pos + HEADER + len > length) {
+                        break;
+                    }
+                    pos += HEADER + len;
+                    count++;
+                }
+                if (pos < length) {
+                    log.warning("Truncating torn record in " + f);
+                    raf.setLength(pos);
+                }
+            } finally {
+                raf.close();
+            }
+        } catch (IOException e) {
+            log.severe(e.toString());
+        }
+        return count;
+    }
+
+    /**
+     * Reads all complete records of a segment, oldest first.
+     *
+     * @param f {@link File} segment file
+     * @return {@link List} of records
+     */
+    private static List<byte[]> readSegment(final File f) {
+        final List<byte[]> records = new ArrayList<>(SEGMENT_RECORDS);
+        final byte[] buf;
+        try {
+            buf = readFully(f);
+        } catch (IOException e) {
+            log.severe(e.toString());
+            return records;
+        }
+        int pos = 0;
+        while (pos + HEADER <= buf.length) {
+            final int len = getInt(buf, pos);
+            if (len < 0 || pos + HEADER + len > buf.length) {
+                break;
+            }
+            records.add(Arrays.copyOfRange(buf, pos + HEADER, pos + HEADER + len));
+            pos += HEADER + len;
+        }
+        return records;
+    }
+
+    private static byte[] readFully(final File f) throws IOException {
+        final FileInputStream in = new FileInputStream(f);
+        try {
+            final byte[] buf = new byte[(int) f.length()];
+            int off = 0;
+            int n;
+            while (off < buf.length && (n = in.read(buf, off, buf.length - off)) > 0) {
+                off += n;
+            }
+            return off == buf.length ? buf : Arrays.copyOf(buf, off);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void putInt(final byte[] b, final int off, final int v) {
+        b[off] = (byte) (v >>> 24);
+        b[off + 1] = (byte) (v >>> 16);
+        b[off + 2] = (byte) (v >>> 8);
+        b[off + 3] = (byte) v;
+    }
+
+    private static int getInt(final byte[] b, final int off) {
+        return (b[off] & 0xff) << 24 | (b[off + 1] & 0xff) << 16 | (b[off + 2] & 0xff) << 8 | (b[off + 3] & 0xff);
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015 Intuit Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.intuitlabs.android.moneywatch.core;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class ArchiveStoreTest {
+    private static final String PAYLOAD = "{\"BigTextStyle\":{\"bigContentTitle\":\"%s\"},\"feed\":\"market\"}";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private File mDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = mFolder.newFolder();
+    }
+
+    @Test
+    public void failedPayloadAppendKeepsLaterPayloads() {
+        final ArchiveStore store = new ArchiveStore(failing(ArchiveStore.LOG_PAYLOADS, 1), Clock.SYSTEM, true);
+        final long lost = store.stage(payload("lost")).seq;
+        store.flush();
+        final long kept = store.stage(payload("kept")).seq;
+        store.flush();
+
+        assertNull(store.getPayload(lost));
+        assertEquals(payload("kept"), store.getPayload(kept));
+        assertEquals(payload("kept"), new ArchiveStore(new FileStorage(mDir), Clock.SYSTEM, true).getPayload(kept));
+    }
+
+    @Test
+    public void clearDropsStagedEntries() throws IOException {
+        final ArchiveStore store = new ArchiveStore(new FileStorage(mDir), Clock.SYSTEM, true);
+        store.stage(payload("flushed"));
+        store.flush();
+        store.stage(payload("staged"));
+        store.clear();
+        store.flush();
+
+        assertEquals(0, store.page(Long.MAX_VALUE, 10, 10).size());
+        final ArchiveStore reopened = new ArchiveStore(new FileStorage(mDir), Clock.SYSTEM, true);
+        assertEquals(0, reopened.page(Long.MAX_VALUE, 10, 10).size());
+        assertEquals(reopened.getNextSeq(), reopened.getFirstSeq(10));
+    }
+
+    @Test
+    public void failedClearKeepsStagedEntries() {
+        final ArchiveStore store = new ArchiveStore(failing(ArchiveStore.LOG_ENTRIES, 1), Clock.SYSTEM, true);
+        final long staged = store.stage(payload("staged")).seq;
+        try {
+            store.clear();
+            fail("clear() wrote nothing, but succeeded");
+        } catch (IOException expected) {
+            // nothing dropped
+        }
+
+        assertEquals(1, store.getStagedCount());
+        assertEquals(staged + 1, store.getNextSeq());
+        store.flush();
+        assertEquals(payload("staged"), new ArchiveStore(new FileStorage(mDir), Clock.SYSTEM, true).getPayload(staged));
+    }
+
+    /**
+     * @return {@link Storage} whose log with the given name fails to append the first times.
+     */
+    private Storage failing(final String log, final int failures) {
+        return new Storage() {
+            private int mFailures = failures;
+
+            @Override
+            public SegmentLog open(final String name) {
+                if (!log.equals(name)) {
+                    return new SegmentLog(new File(mDir, name));
+                }
+                return new SegmentLog(new File(mDir, name)) {
+                    @Override
+                    public synchronized long appendAll(final List<byte[]> records) throws IOException {
+                        if (0 < mFailures) {
+                            mFailures--;
+                            throw new IOException("disk full");
+                        }
+                        return super.appendAll(records);
+                    }
+                };
+            }
+        };
+    }
+
+    private static String payload(final String title) {
+        return String.format(PAYLOAD, title);
+    }
+}